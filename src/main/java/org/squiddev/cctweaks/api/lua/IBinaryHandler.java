@@ -0,0 +1,26 @@
+package org.squiddev.cctweaks.api.lua;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allows methods to receive string arguments as raw binary data, rather than having them decoded to
+ * {@link String}s and then encoded back to bytes.
+ *
+ * @see dan200.computercraft.api.lua.ILuaObject
+ * @see IMethodDescriptor
+ */
+public interface IBinaryHandler {
+	/**
+	 * Determines whether string arguments to this method should be passed as binary.
+	 *
+	 * If so, strings will be passed as {@link ByteBuffer}s wrapping the Lua string's backing array. The buffer's
+	 * contents must not be modified.
+	 *
+	 * Not all runtimes support this, so methods should continue to accept {@link String} and {@code byte[]} arguments
+	 * too. Strings within tables are always converted as normal.
+	 *
+	 * @param method The method on this object
+	 * @return Whether this method accepts binary arguments.
+	 */
+	boolean isBinary(int method);
+}
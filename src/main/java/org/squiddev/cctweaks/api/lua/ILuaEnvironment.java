@@ -7,6 +7,7 @@ import dan200.computercraft.api.peripheral.IComputerAccess;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.List;
 
 /**
  * Various hooks and methods for interfacing with the Lua environment
@@ -65,6 +66,29 @@ public interface ILuaEnvironment {
 	@Nullable
 	Object[] executeTask(@Nonnull IComputerAccess access, @Nonnull ILuaContext context, @Nonnull ILuaTask task, int delay) throws LuaException, InterruptedException;
 
+	/**
+	 * Issue several tasks to be run on the main thread as one unit and wait for all of them to complete.
+	 *
+	 * All tasks are executed in order within the same tick and their results are returned together, rather than
+	 * waiting a tick for each one. If any task is an instance of {@link IExtendedLuaTask} then its
+	 * {@link IExtendedLuaTask#update()} method will be called every tick.
+	 *
+	 * The batch only counts as a single task towards the rate limit.
+	 *
+	 * @param access  The computer access object
+	 * @param context The current lua context
+	 * @param tasks   The tasks to run
+	 * @param delay   Time in ticks to wait before running
+	 * @return The return values of each task, in the same order as {@code tasks}. Tasks which returned {@code null}
+	 * will have an empty array.
+	 * @throws LuaException         When there are too many tasks (>50000), when terminated or if any task errors. If a
+	 *                              task errors then the remaining tasks will not be executed.
+	 * @throws InterruptedException When terminated
+	 * @see #executeTask(IComputerAccess, ILuaContext, ILuaTask, int)
+	 */
+	@Nonnull
+	Object[][] executeTasks(@Nonnull IComputerAccess access, @Nonnull ILuaContext context, @Nonnull List<? extends ILuaTask> tasks, int delay) throws LuaException, InterruptedException;
+
 	/**
 	 * Sleep the Lua thread for a duration
 	 *
@@ -88,6 +88,36 @@ public final class Config {
 			@RequiresRestart(mc = false, world = true)
 			public static boolean websocket;
 
+			/**
+			 * Enable UDP sockets.
+			 * These can send to any whitelisted host, so are disabled by default.
+			 */
+			@DefaultBoolean(false)
+			@RequiresRestart(mc = false, world = true)
+			public static boolean udp;
+
+			/**
+			 * Allow computers to listen for TCP connections.
+			 * Servers only listen on the loopback interface, so can only be reached from this machine.
+			 */
+			@DefaultBoolean(false)
+			@RequiresRestart(mc = false, world = true)
+			public static boolean listen;
+
+			/**
+			 * The lowest port computers may listen on.
+			 */
+			@DefaultInt(50000)
+			@Range(min = 1, max = 65535)
+			public static int listenPortMin;
+
+			/**
+			 * The highest port computers may listen on.
+			 */
+			@DefaultInt(50999)
+			@Range(min = 1, max = 65535)
+			public static int listenPortMax;
+
 			/**
 			 * Maximum connections a computer can have at any time
 			 */
@@ -111,12 +141,172 @@ public final class Config {
 			@RequiresRestart
 			public static int nettyThreads;
 
+			/**
+			 * Use Netty's native epoll transport when running on Linux, rather than Java's selectors.
+			 * This falls back to the default transport when the native one is not available.
+			 * This is experimental, so is disabled by default.
+			 */
+			@DefaultBoolean(false)
+			@RequiresRestart
+			public static boolean nativeTransport;
+
 			/**
 			 * Maximum number of characters to read from a socket.
 			 */
 			@DefaultInt(2048)
 			@Range(min = 1)
 			public static int maxRead = 2048;
+
+			/**
+			 * Number of bytes a TCP connection will receive ahead of the computer reading them.
+			 * Once this is reached the connection stops reading until the computer catches up.
+			 * UDP sockets drop any datagrams received beyond this.
+			 */
+			@DefaultInt(65536)
+			@Range(min = 1)
+			public static int receiveHighWater;
+
+			/**
+			 * Once reading has been paused, the number of unread bytes at which the connection starts
+			 * reading again.
+			 */
+			@DefaultInt(16384)
+			@Range(min = 0)
+			public static int receiveLowWater;
+
+			/**
+			 * Maximum number of bytes a TCP connection will queue to be sent.
+			 * Writes beyond this are cut short, and a socket_drain event is queued once the queue has been sent.
+			 * UDP sockets don't send datagrams which would go beyond this, but queue a socket_drain event in the same way.
+			 */
+			@DefaultInt(65536)
+			@Range(min = 1)
+			public static int sendBufferSize;
+
+			/**
+			 * Number of milliseconds to wait before sending written data, so several small writes
+			 * can be sent together. Set to 0 to send on the next pass of the event loop.
+			 */
+			@DefaultInt(1)
+			@Range(min = 0)
+			public static int flushDelay;
+
+			/**
+			 * Maximum size of a single websocket frame, in bytes.
+			 * Larger messages are split into several frames when sending.
+			 */
+			@DefaultInt(65536)
+			@Range(min = 1)
+			public static int maxFrameSize;
+
+			/**
+			 * Maximum size of a websocket message, in bytes, once all its frames have been combined.
+			 */
+			@DefaultInt(1048576)
+			@Range(min = 1)
+			public static int maxMessageSize;
+
+			/**
+			 * Number of seconds to remember a resolved address, and whether it is whitelisted, for.
+			 * This is shared between all computers. Set to 0 to disable caching.
+			 */
+			@DefaultInt(60)
+			@Range(min = 0)
+			public static int dnsCacheTime;
+
+			/**
+			 * Number of seconds to remember that an address could not be resolved for.
+			 */
+			@DefaultInt(10)
+			@Range(min = 0)
+			public static int dnsNegativeCacheTime;
+		}
+
+		/**
+		 * HTTP requests which share keep-alive connections, using the socket API's event loop.
+		 * These use the socket API's read limits and ComputerCraft's whitelist and blacklist.
+		 */
+		public static final class Http {
+			/**
+			 * Enable the httpclient API.
+			 */
+			@DefaultBoolean(true)
+			@RequiresRestart(mc = false, world = true)
+			public static boolean enabled;
+
+			/**
+			 * Maximum requests a computer can have open at any time
+			 */
+			@DefaultInt(16)
+			@Range(min = 1)
+			public static int maxRequests;
+
+			/**
+			 * Maximum connections to a single host, shared between all computers.
+			 * Further requests wait for a connection to become free.
+			 */
+			@DefaultInt(4)
+			@Range(min = 1)
+			public static int maxConnectionsPerHost;
+
+			/**
+			 * Maximum GET and HEAD requests which can be sent on one connection before the
+			 * previous responses have been received. Set to 1 to disable pipelining.
+			 */
+			@DefaultInt(4)
+			@Range(min = 1)
+			public static int pipelineDepth;
+
+			/**
+			 * Number of seconds an unused connection is kept open for.
+			 */
+			@DefaultInt(30)
+			@Range(min = 1)
+			public static int idleTimeout;
+
+			/**
+			 * Maximum number of bytes readAll will return.
+			 * The default is 1MiB
+			 */
+			@DefaultInt(1048576)
+			@Range(min = 1)
+			public static int maxResponseSize;
+		}
+
+		/**
+		 * Named channels for sending messages between computers on the same server.
+		 */
+		public static final class Bus {
+			/**
+			 * Enable the bus API.
+			 */
+			@DefaultBoolean(true)
+			@RequiresRestart(mc = false, world = true)
+			public static boolean enabled;
+
+			/**
+			 * Maximum channels a computer can be subscribed to at any time
+			 */
+			@DefaultInt(16)
+			@Range(min = 1)
+			public static int maxSubscriptions;
+
+			/**
+			 * Number of messages which can wait to be received on each subscription.
+			 * Further messages are dropped until the computer receives them.
+			 * This is rounded up to a power of two, and is at least two.
+			 */
+			@DefaultInt(256)
+			@Range(min = 1, max = 65536)
+			public static int capacity;
+
+			/**
+			 * Maximum size of a message in bytes, counting each number, boolean and table as 8 bytes.
+			 * The default is 64KiB
+			 */
+			@DefaultInt(65536)
+			@Range(min = 1)
+			public static int maxMessageSize;
 		}
 
 		/**
@@ -136,6 +326,30 @@ public final class Config {
 			 */
 			@DefaultInt(1048576)
 			public static int limit;
+
+			/**
+			 * Inputs larger than this many bytes are processed on a worker thread, rather than blocking the
+			 * computer thread. Set to 0 to always process on the computer thread.
+			 * The default is 64KiB
+			 */
+			@DefaultInt(65536)
+			@Range(min = 0)
+			public static int offloadThreshold;
+
+			/**
+			 * Number of threads to use for processing large inputs.
+			 */
+			@DefaultInt(2)
+			@Range(min = 1)
+			@RequiresRestart
+			public static int threads;
+
+			/**
+			 * Maximum inflate and deflate streams a computer can have open at any time
+			 */
+			@DefaultInt(16)
+			@Range(min = 1)
+			public static int maxStreams;
 		}
 
 		/**
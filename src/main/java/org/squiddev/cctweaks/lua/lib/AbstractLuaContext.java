@@ -12,6 +12,11 @@ import javax.annotation.Nonnull;
 public abstract class AbstractLuaContext implements ILuaContext {
 	private final Computer computer;
 
+	/**
+	 * The task the main coroutine is blocked on, or {@code null} if it could be waiting on anything.
+	 */
+	private volatile TaskCompletion awaiting;
+
 	public AbstractLuaContext(Computer computer) {
 		this.computer = computer;
 	}
@@ -34,27 +39,29 @@ public abstract class AbstractLuaContext implements ILuaContext {
 
 	@Override
 	public final Object[] executeMainThreadTask(@Nonnull final ILuaTask task) throws LuaException, InterruptedException {
-		long taskID = issueMainThreadTask(task);
+		final TaskCompletion completion = new TaskCompletion(MainThread.getUniqueTaskID(), "task_complete");
+		ITask generatedTask = new ITask() {
+			@Override
+			public Computer getOwner() {
+				return computer;
+			}
 
-		Object[] response;
-		do {
-			do {
-				response = this.pullEvent("task_complete");
-			} while (response.length < 3);
-		}
-		while (!(response[1] instanceof Number) || !(response[2] instanceof Boolean) || (long) ((Number) response[1]).intValue() != taskID);
+			@Override
+			public void execute() {
+				try {
+					completion.succeed(task.execute());
+				} catch (LuaException e) {
+					completion.fail(e.getMessage());
+				} catch (Throwable e) {
+					completion.fail("Java Exception Thrown: " + e.toString());
+				}
 
-		if (!(Boolean) response[2]) {
-			if (response.length >= 4 && response[3] instanceof String) {
-				throw new LuaException((String) response[3]);
-			} else {
-				throw new LuaException();
+				computer.queueEvent("task_complete", new Object[]{completion.getId()});
 			}
-		} else {
-			Object[] returnValues = new Object[response.length - 3];
-			System.arraycopy(response, 3, returnValues, 0, returnValues.length);
-			return returnValues;
-		}
+		};
+
+		if (!MainThread.queueTask(generatedTask)) throw new LuaException("Task limit exceeded");
+		return await(completion);
 	}
 
 	@Override
@@ -93,4 +100,50 @@ public abstract class AbstractLuaContext implements ILuaContext {
 			throw new LuaException("Task limit exceeded");
 		}
 	}
+
+	/**
+	 * Wait for a task to complete, pulling events until its completion slot is filled.
+	 *
+	 * @param completion The task to wait for
+	 * @return The task's result
+	 * @throws LuaException         If the task failed or the computer was terminated
+	 * @throws InterruptedException If the computer was shutdown
+	 * @see #canSkipEvent(String)
+	 */
+	public final Object[] await(@Nonnull TaskCompletion completion) throws LuaException, InterruptedException {
+		boolean direct = isMainCoroutine();
+		if (direct) awaiting = completion;
+
+		try {
+			while (!completion.isDone()) pullEvent(completion.getEvent());
+		} finally {
+			if (direct) awaiting = null;
+		}
+
+		return completion.getResult();
+	}
+
+	/**
+	 * Whether the code currently executing is running on the computer's main coroutine, rather than a coroutine
+	 * created by Lua code.
+	 *
+	 * @return If we are running on the main coroutine. When in doubt, return {@code false}.
+	 */
+	protected boolean isMainCoroutine() {
+		return false;
+	}
+
+	/**
+	 * Determine whether an event can be discarded without resuming Lua.
+	 *
+	 * If the main coroutine is blocked waiting on a task which hasn't completed yet, any other task event would just
+	 * be pulled and discarded, so we can avoid resuming the coroutine (and converting its arguments) at all.
+	 *
+	 * @param eventName The name of the event
+	 * @return If this event can be discarded.
+	 */
+	protected final boolean canSkipEvent(@Nonnull String eventName) {
+		TaskCompletion awaiting = this.awaiting;
+		return awaiting != null && !awaiting.isDone() && eventName.equals(awaiting.getEvent());
+	}
 }
@@ -2,8 +2,10 @@ package org.squiddev.cctweaks.lua.lib;
 
 import org.squiddev.cctweaks.api.lua.*;
 import org.squiddev.cctweaks.lua.Config;
+import org.squiddev.cctweaks.lua.lib.bus.BusAPI;
 import org.squiddev.cctweaks.lua.lib.cobalt.CobaltFactory;
 import org.squiddev.cctweaks.lua.lib.luaj.LuaJFactory;
+import org.squiddev.cctweaks.lua.lib.socket.HttpClientAPI;
 import org.squiddev.cctweaks.lua.lib.socket.SocketAPI;
 
 import javax.annotation.Nonnull;
@@ -19,7 +21,7 @@ public class ApiRegister {
 		environment.registerAPI(new ILuaAPIFactory() {
 			@Override
 			public ILuaAPI create(@Nonnull IExtendedComputerAccess computer) {
-				if (Config.APIs.Socket.tcp || Config.APIs.Socket.websocket) {
+				if (Config.APIs.Socket.tcp || Config.APIs.Socket.websocket || Config.APIs.Socket.udp || Config.APIs.Socket.listen) {
 					return new SocketAPI(computer);
 				} else {
 					return null;
@@ -34,6 +36,8 @@ public class ApiRegister {
 		});
 
 		environment.registerAPI(new DataAPI());
+		environment.registerAPI(new HttpClientAPI());
+		environment.registerAPI(new BusAPI());
 	}
 
 	public static void loadPlugins() {
@@ -4,6 +4,7 @@ import dan200.computercraft.api.lua.LuaException;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
 import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
@@ -23,6 +24,7 @@ public final class ArgumentHelper {
 		if (type instanceof Boolean) return "boolean";
 		if (type instanceof Number) return "number";
 		if (type instanceof Map) return "table";
+		if (type instanceof byte[] || type instanceof ByteBuffer) return "string";
 
 		Class<?> klass = type.getClass();
 		if (klass.isArray()) {
@@ -86,8 +88,9 @@ public final class ArgumentHelper {
 	@Nonnull
 	public static String getString(@Nonnull Object[] args, int index) throws LuaException {
 		Object value = index < args.length ? args[index] : null;
-		if (value instanceof String) {
-			return (String) value;
+		String string = asString(value);
+		if (string != null) {
+			return string;
 		} else {
 			throw badArgument(value, index, "string");
 		}
@@ -103,6 +106,29 @@ public final class ArgumentHelper {
 		}
 	}
 
+	/**
+	 * Get a string argument as binary data.
+	 *
+	 * @param args  The arguments to extract from
+	 * @param index The index of the argument
+	 * @return A buffer wrapping the string's bytes. This should not be modified.
+	 * @throws LuaException If the argument is not a string
+	 * @see org.squiddev.cctweaks.api.lua.IBinaryHandler
+	 */
+	@Nonnull
+	public static ByteBuffer getBinary(@Nonnull Object[] args, int index) throws LuaException {
+		Object value = index < args.length ? args[index] : null;
+		if (value instanceof ByteBuffer) {
+			return (ByteBuffer) value;
+		} else if (value instanceof byte[]) {
+			return ByteBuffer.wrap((byte[]) value);
+		} else if (value instanceof String) {
+			return ByteBuffer.wrap(BinaryConverter.toBytes((String) value));
+		} else {
+			throw badArgument(value, index, "string");
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	@Nonnull
 	public static Map<Object, Object> getTable(@Nonnull Object[] args, int index) throws LuaException {
@@ -118,8 +144,8 @@ public final class ArgumentHelper {
 	@Nonnull
 	public static <T extends Enum<T>> T getEnum(@Nonnull Object[] args, int index, Class<T> klass) throws LuaException {
 		Object value = index < args.length ? args[index] : null;
-		if (value instanceof String) {
-			String name = (String) value;
+		String name = asString(value);
+		if (name != null) {
 			try {
 				return Enum.valueOf(klass, name.toUpperCase(Locale.ENGLISH));
 			} catch (IllegalArgumentException e) {
@@ -174,10 +200,11 @@ public final class ArgumentHelper {
 
 	public static String optString(@Nonnull Object[] args, int index, String def) throws LuaException {
 		Object value = index < args.length ? args[index] : null;
-		if (value == null) {
-			return def;
-		} else if (value instanceof String) {
-			return (String) value;
+		if (value == null) return def;
+
+		String string = asString(value);
+		if (string != null) {
+			return string;
 		} else {
 			throw badArgument(value, index, "string");
 		}
@@ -194,6 +221,11 @@ public final class ArgumentHelper {
 		}
 	}
 
+	public static ByteBuffer optBinary(@Nonnull Object[] args, int index, ByteBuffer def) throws LuaException {
+		Object value = index < args.length ? args[index] : null;
+		return value == null ? def : getBinary(args, index);
+	}
+
 	@SuppressWarnings("unchecked")
 	@Nonnull
 	public static <T extends Enum<T>> T optEnum(@Nonnull Object[] args, int index, Class<T> klass, T def) throws LuaException {
@@ -228,6 +260,26 @@ public final class ArgumentHelper {
 		}
 	}
 
+	/**
+	 * Convert a string argument to a {@link String}, decoding it if it was passed as binary.
+	 *
+	 * @param value The value to convert
+	 * @return The converted string, or {@code null} if it is not a string.
+	 */
+	@Nullable
+	private static String asString(@Nullable Object value) {
+		if (value instanceof String) {
+			return (String) value;
+		} else if (value instanceof ByteBuffer) {
+			ByteBuffer buffer = (ByteBuffer) value;
+			return BinaryConverter.decodeString(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+		} else if (value instanceof byte[]) {
+			return BinaryConverter.decodeString((byte[]) value);
+		} else {
+			return null;
+		}
+	}
+
 	public static void assertBetween(double value, double min, double max, String message) throws LuaException {
 		if (value < min || value > max) {
 			throw new LuaException(String.format(message, "between " + min + " and " + max));
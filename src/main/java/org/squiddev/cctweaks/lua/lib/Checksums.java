@@ -0,0 +1,60 @@
+package org.squiddev.cctweaks.lua.lib;
+
+/**
+ * CRC32 and Adler32 checksums which can be continued from a previous value.
+ *
+ * {@link java.util.zip.CRC32} and {@link java.util.zip.Adler32} cannot be seeded, so cannot be used to checksum data
+ * spread across several calls.
+ */
+public final class Checksums {
+	private static final int[] CRC_TABLE = new int[256];
+	private static final int ADLER_BASE = 65521;
+
+	/**
+	 * The largest number of bytes we can process before the Adler sums could overflow. zlib uses 5552, but that
+	 * relies on unsigned arithmetic: Java's ints are signed, so we must reduce more often.
+	 */
+	private static final int ADLER_MAX = 3854;
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int crc = i;
+			for (int j = 0; j < 8; j++) {
+				crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0xEDB88320 : crc >>> 1;
+			}
+			CRC_TABLE[i] = crc;
+		}
+	}
+
+	private Checksums() {
+		throw new IllegalStateException("Cannot instantiate singleton " + getClass().getName());
+	}
+
+	public static int crc32(int crc, byte[] bytes, int offset, int length) {
+		crc = ~crc;
+		for (int i = offset, end = offset + length; i < end; i++) {
+			crc = CRC_TABLE[(crc ^ bytes[i]) & 0xFF] ^ (crc >>> 8);
+		}
+		return ~crc;
+	}
+
+	public static int adler32(int adler, byte[] bytes, int offset, int length) {
+		int a = adler & 0xFFFF;
+		int b = (adler >>> 16) & 0xFFFF;
+
+		while (length > 0) {
+			int chunk = Math.min(length, ADLER_MAX);
+			length -= chunk;
+
+			for (int end = offset + chunk; offset < end; offset++) {
+				a += bytes[offset] & 0xFF;
+				b += a;
+			}
+
+			a %= ADLER_BASE;
+			b %= ADLER_BASE;
+		}
+
+		return (b << 16) | a;
+	}
+}
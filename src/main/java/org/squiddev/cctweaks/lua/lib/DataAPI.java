@@ -1,33 +1,118 @@
 package org.squiddev.cctweaks.lua.lib;
 
+import com.google.common.io.BaseEncoding;
 import dan200.computercraft.api.lua.ILuaContext;
+import dan200.computercraft.api.lua.ILuaObject;
 import dan200.computercraft.api.lua.LuaException;
+import dan200.computercraft.api.peripheral.IComputerAccess;
+import org.squiddev.cctweaks.api.lua.IBinaryHandler;
 import org.squiddev.cctweaks.api.lua.IExtendedComputerAccess;
 import org.squiddev.cctweaks.api.lua.ILuaAPI;
 import org.squiddev.cctweaks.api.lua.ILuaAPIFactory;
+import org.squiddev.cctweaks.api.lua.ILuaEnvironment;
 import org.squiddev.cctweaks.api.lua.IMethodDescriptor;
 import org.squiddev.cctweaks.lua.Config;
+import org.squiddev.cctweaks.lua.ThreadBuilder;
+import org.squiddev.cctweaks.lua.TweaksLogger;
 
 import javax.annotation.Nonnull;
 import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
 import java.util.zip.Inflater;
-import java.util.zip.InflaterOutputStream;
 
-import static org.squiddev.cctweaks.lua.lib.ArgumentHelper.getString;
+import static org.squiddev.cctweaks.lua.lib.ArgumentHelper.*;
 
 /**
- * Adds inflate/deflate APIs
+ * Adds compression, checksum, hashing and encoding APIs
  */
-public class DataAPI implements ILuaAPI, ILuaAPIFactory, IMethodDescriptor {
+public class DataAPI implements ILuaAPI, ILuaAPIFactory, IMethodDescriptor, IBinaryHandler {
+	private static final int BUFFER_SIZE = 8192;
+	private static final ByteBuffer EMPTY = ByteBuffer.wrap(new byte[0]);
+
+	private static final BaseEncoding BASE64 = BaseEncoding.base64();
+	private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+
+	/**
+	 * The header for gzip streams: no flags, no modification time and an unknown OS.
+	 */
+	private static final byte[] GZIP_HEADER = new byte[]{0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+	private static final Object lock = new Object();
+
+	/**
+	 * Created lazily, as most computers never process enough data to need it. This must be volatile for the double
+	 * checked locking in {@link #getWorkers()} to be safe.
+	 */
+	private static volatile ThreadPoolExecutor workers;
+
+	private final IComputerAccess computer;
+
+	/**
+	 * Streams which hold a pooled inflater or deflater, so they can be released if the computer shuts down.
+	 */
+	private final Set<DataStream> streams = Collections.newSetFromMap(new ConcurrentHashMap<DataStream, Boolean>());
+
+	public DataAPI() {
+		this(null);
+	}
+
+	private DataAPI(IComputerAccess computer) {
+		this.computer = computer;
+	}
+
+	private enum Format {
+		RAW(true),
+		ZLIB(false),
+		GZIP(true);
+
+		private final boolean nowrap;
+
+		Format(boolean nowrap) {
+			this.nowrap = nowrap;
+		}
+	}
+
+	private enum Hash {
+		MD5("MD5"),
+		SHA1("SHA-1"),
+		SHA256("SHA-256");
+
+		private final String algorithm;
+
+		Hash(String algorithm) {
+			this.algorithm = algorithm;
+		}
+
+		public MessageDigest create() throws LuaException {
+			try {
+				return MessageDigest.getInstance(algorithm);
+			} catch (NoSuchAlgorithmException e) {
+				throw new LuaException("Hash " + name().toLowerCase(Locale.ENGLISH) + " is not supported");
+			}
+		}
+	}
+
 	@Override
 	public void startup() {
 	}
 
 	@Override
 	public void shutdown() {
+		for (DataStream stream : streams.toArray(new DataStream[0])) {
+			stream.close();
+		}
+
+		streams.clear();
 	}
 
 	@Override
@@ -37,12 +122,17 @@ public class DataAPI implements ILuaAPI, ILuaAPIFactory, IMethodDescriptor {
 	@Nonnull
 	@Override
 	public String[] getMethodNames() {
-		return new String[]{"inflate", "deflate"};
+		return new String[]{
+			"inflate", "deflate", "inflateStream", "deflateStream",
+			"crc32", "adler32", "hash", "hashStream",
+			"toBase64", "fromBase64", "toHex", "fromHex",
+			"lz4Compress", "lz4Decompress",
+		};
 	}
 
 	@Override
 	public ILuaAPI create(@Nonnull IExtendedComputerAccess computer) {
-		return Config.APIs.Data.enabled ? this : null;
+		return Config.APIs.Data.enabled ? new DataAPI(computer) : null;
 	}
 
 	@Nonnull
@@ -52,50 +142,626 @@ public class DataAPI implements ILuaAPI, ILuaAPIFactory, IMethodDescriptor {
 	}
 
 	@Override
-	public Object[] callMethod(@Nonnull ILuaContext context, int method, @Nonnull Object[] args) throws LuaException, InterruptedException {
+	public Object[] callMethod(@Nonnull ILuaContext context, final int method, @Nonnull final Object[] args) throws LuaException, InterruptedException {
 		switch (method) {
-			case 0:
-				return inflate(BinaryConverter.toBytes(getString(args, 0)));
+			case 2: // inflateStream
+				checkStreams();
+				return new Object[]{track(new InflaterStream(this, new InflateState(optEnum(args, 0, Format.class, Format.RAW))))};
+			case 3: // deflateStream
+				checkStreams();
+				return new Object[]{track(new DeflaterStream(this, new DeflateState(getLevel(args, 0), optEnum(args, 1, Format.class, Format.RAW))))};
+			case 7: // hashStream
+				return new Object[]{new HashStream(this, getEnum(args, 0, Hash.class).create())};
+		}
+
+		if (!shouldOffload(args)) return compute(method, args);
+		return offload(context, new Operation() {
+			@Override
+			public Object[] run() throws LuaException {
+				return compute(method, args);
+			}
+		});
+	}
+
+	/**
+	 * Check this computer can open another stream. Each one holds native zlib memory until it is closed.
+	 *
+	 * @throws LuaException If this computer has too many streams open.
+	 */
+	private void checkStreams() throws LuaException {
+		if (streams.size() >= Config.APIs.Data.maxStreams) throw new LuaException("Too many open streams");
+	}
 
-			case 1:
-				return deflate(BinaryConverter.toBytes(getString(args, 0)));
+	private DataStream track(DataStream stream) {
+		streams.add(stream);
+		return stream;
+	}
+
+	private static Object[] compute(int method, Object[] args) throws LuaException {
+		switch (method) {
+			case 0: { // inflate
+				ByteBuffer data = checkLength(getBinary(args, 0));
+				InflateState state = new InflateState(optEnum(args, 1, Format.class, Format.RAW));
+				try {
+					byte[] result = state.update(data);
+					if (!state.isFinished()) throw new LuaException("Unexpected end of stream");
+					return new Object[]{result};
+				} finally {
+					state.close();
+				}
+			}
+			case 1: { // deflate
+				ByteBuffer data = checkLength(getBinary(args, 0));
+				DeflateState state = new DeflateState(getLevel(args, 1), optEnum(args, 2, Format.class, Format.RAW));
+				try {
+					return new Object[]{state.update(data, true)};
+				} finally {
+					state.close();
+				}
+			}
+			case 4: { // crc32
+				ByteBuffer data = checkLength(getBinary(args, 0));
+				int crc = (int) (long) optNumber(args, 1, 0);
+				return new Object[]{Checksums.crc32(crc, data.array(), data.arrayOffset() + data.position(), data.remaining()) & 0xFFFFFFFFL};
+			}
+			case 5: { // adler32
+				ByteBuffer data = checkLength(getBinary(args, 0));
+				int adler = (int) (long) optNumber(args, 1, 1);
+				return new Object[]{Checksums.adler32(adler, data.array(), data.arrayOffset() + data.position(), data.remaining()) & 0xFFFFFFFFL};
+			}
+			case 6: { // hash
+				MessageDigest digest = getEnum(args, 0, Hash.class).create();
+				ByteBuffer data = checkLength(getBinary(args, 1));
+				digest.update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+				return new Object[]{digest.digest()};
+			}
+			case 8: { // toBase64
+				ByteBuffer data = checkLength(getBinary(args, 0));
+				return new Object[]{BASE64.encode(data.array(), data.arrayOffset() + data.position(), data.remaining())};
+			}
+			case 9: // fromBase64
+				try {
+					return new Object[]{BASE64.decode(checkLength(getString(args, 0)))};
+				} catch (IllegalArgumentException e) {
+					throw LuaHelpers.rewriteException(e, "Invalid base64");
+				}
+			case 10: { // toHex
+				ByteBuffer data = checkLength(getBinary(args, 0));
+				return new Object[]{HEX.encode(data.array(), data.arrayOffset() + data.position(), data.remaining())};
+			}
+			case 11: // fromHex
+				try {
+					return new Object[]{HEX.decode(checkLength(getString(args, 0)).toLowerCase(Locale.ENGLISH))};
+				} catch (IllegalArgumentException e) {
+					throw LuaHelpers.rewriteException(e, "Invalid hex");
+				}
+			case 12: { // lz4Compress
+				ByteBuffer data = checkLength(getBinary(args, 0));
+				return new Object[]{LZ4Codec.compress(data.array(), data.arrayOffset() + data.position(), data.remaining())};
+			}
+			case 13: { // lz4Decompress
+				ByteBuffer data = checkLength(getBinary(args, 0));
+				return new Object[]{LZ4Codec.decompress(data.array(), data.arrayOffset() + data.position(), data.remaining(), Config.APIs.Data.limit)};
+			}
 		}
 
 		return null;
 	}
 
-	private Object[] inflate(byte[] data) throws LuaException {
-		if (data.length >= Config.APIs.Data.limit) throw new LuaException("Data is too long");
+	/**
+	 * Determine whether a call's arguments are large enough to be processed on a worker thread.
+	 *
+	 * @param args The arguments to the call
+	 * @return If this call should be offloaded.
+	 */
+	private boolean shouldOffload(Object[] args) {
+		int threshold = Config.APIs.Data.offloadThreshold;
+		if (computer == null || threshold <= 0) return false;
+
+		int size = 0;
+		for (Object arg : args) {
+			if (arg instanceof ByteBuffer) {
+				size += ((ByteBuffer) arg).remaining();
+			} else if (arg instanceof byte[]) {
+				size += ((byte[]) arg).length;
+			} else if (arg instanceof String) {
+				size += ((String) arg).length();
+			}
+		}
 
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(512);
-		InflaterOutputStream inos = new InflaterOutputStream(baos, new Inflater(true));
+		return size >= threshold;
+	}
+
+	/**
+	 * Run an operation on a worker thread, yielding until it has finished.
+	 *
+	 * If all workers are busy then the operation is run on the current thread instead.
+	 *
+	 * @param context   The context to yield within
+	 * @param operation The operation to run
+	 * @return The operation's result
+	 * @throws LuaException         If the operation failed or the computer was terminated
+	 * @throws InterruptedException If the computer was shutdown
+	 */
+	private Object[] offload(ILuaContext context, final Operation operation) throws LuaException, InterruptedException {
+		final TaskCompletion completion = new TaskCompletion(DelayedTasks.getNextId(), ILuaEnvironment.EVENT_NAME);
 		try {
-			inos.write(data);
-			inos.finish();
-		} catch (IOException e) {
-			throw LuaHelpers.rewriteException(e, "Inflating error");
+			getWorkers().execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						completion.succeed(operation.run());
+					} catch (LuaException e) {
+						completion.fail(e.getMessage());
+					} catch (RuntimeException e) {
+						TweaksLogger.error("Error processing data", e);
+						completion.fail("Java Exception Thrown: " + e.toString());
+					}
+
+					computer.queueEvent(completion.getEvent(), new Object[]{completion.getId()});
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			return operation.run();
 		}
 
-		return new Object[]{baos.toByteArray()};
+		return completion.await(context);
 	}
 
-	private Object[] deflate(byte[] data) throws LuaException {
-		if (data.length >= Config.APIs.Data.limit) throw new LuaException("Data is too long");
+	private static ThreadPoolExecutor getWorkers() {
+		ThreadPoolExecutor workers = DataAPI.workers;
+		if (workers != null) return workers;
 
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(512);
-		DeflaterOutputStream inos = new DeflaterOutputStream(baos, new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+		synchronized (lock) {
+			workers = DataAPI.workers;
+			if (workers == null) {
+				DataAPI.workers = workers = ThreadBuilder.createThread("Data", Config.APIs.Data.threads, ThreadBuilder.LOW_PRIORITY);
+			}
+			return workers;
+		}
+	}
+
+	private static ByteBuffer checkLength(ByteBuffer data) throws LuaException {
+		if (data.remaining() >= Config.APIs.Data.limit) throw new LuaException("Data is too long");
+		return data;
+	}
+
+	private static String checkLength(String data) throws LuaException {
+		if (data.length() >= Config.APIs.Data.limit) throw new LuaException("Data is too long");
+		return data;
+	}
+
+	private static int getLevel(Object[] args, int index) throws LuaException {
+		int level = optInt(args, index, Deflater.DEFAULT_COMPRESSION);
+		if (level != Deflater.DEFAULT_COMPRESSION) assertBetween(level, 0, 9, "Level must be %s");
+		return level;
+	}
+
+	private static void writeIntLE(ByteArrayOutputStream output, int value) {
+		output.write(value);
+		output.write(value >>> 8);
+		output.write(value >>> 16);
+		output.write(value >>> 24);
+	}
+
+	private static int readIntLE(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset + 2] & 0xFF) << 16 | (bytes[offset + 3] & 0xFF) << 24;
+	}
+
+	/**
+	 * Find the length of a gzip header.
+	 *
+	 * @param header The bytes read so far.
+	 * @param length The number of bytes read so far.
+	 * @return The length of the header, or {@code -1} if more data is needed.
+	 * @throws LuaException If this is not a valid header.
+	 */
+	private static int gzipHeaderLength(byte[] header, int length) throws LuaException {
+		if (length < 10) return -1;
+		if (header[0] != 0x1f || header[1] != (byte) 0x8b) throw new LuaException("Not in gzip format");
+		if (header[2] != Deflater.DEFLATED) throw new LuaException("Unsupported compression method");
+
+		int flags = header[3] & 0xFF;
+		int offset = 10;
+
+		// FEXTRA
+		if ((flags & 4) != 0) {
+			if (length < offset + 2) return -1;
+			offset += 2 + ((header[offset] & 0xFF) | (header[offset + 1] & 0xFF) << 8);
+		}
+
+		// FNAME and FCOMMENT: zero terminated strings
+		for (int flag = 8; flag <= 16; flag <<= 1) {
+			if ((flags & flag) == 0) continue;
+
+			while (true) {
+				if (offset >= length) return -1;
+				if (header[offset++] == 0) break;
+			}
+		}
+
+		// FHCRC
+		if ((flags & 2) != 0) offset += 2;
+
+		return offset <= length ? offset : -1;
+	}
+
+	/**
+	 * Inflate a block of data, returning as much output as is available.
+	 *
+	 * @param inflater The inflater to use
+	 * @param data     The data to inflate
+	 * @return The inflated data
+	 * @throws LuaException If the data is malformed or the output is too long.
+	 */
+	private static byte[] inflate(Inflater inflater, ByteBuffer data) throws LuaException {
+		inflater.setInput(data.array(), data.arrayOffset() + data.position(), data.remaining());
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(512, data.remaining() * 2));
+		byte[] buffer = new byte[BUFFER_SIZE];
 		try {
-			inos.write(data);
-			inos.finish();
-		} catch (IOException e) {
-			throw LuaHelpers.rewriteException(e, "Deflating error");
+			while (!inflater.finished()) {
+				int read = inflater.inflate(buffer);
+				if (read == 0) {
+					if (inflater.needsDictionary()) throw new LuaException("Inflating error: dictionary required");
+					if (inflater.needsInput()) break;
+				}
+
+				output.write(buffer, 0, read);
+				if (output.size() > Config.APIs.Data.limit) throw new LuaException("Inflated data is too long");
+			}
+		} catch (DataFormatException e) {
+			throw LuaHelpers.rewriteException(e, "Inflating error");
+		}
+
+		return output.toByteArray();
+	}
+
+	/**
+	 * Deflate a block of data, returning as much output as is available.
+	 *
+	 * @param deflater The deflater to use
+	 * @param data     The data to deflate
+	 * @param finish   Whether this is the last block of data
+	 * @param output   The stream to write to
+	 */
+	private static void deflate(Deflater deflater, ByteBuffer data, boolean finish, ByteArrayOutputStream output) {
+		deflater.setInput(data.array(), data.arrayOffset() + data.position(), data.remaining());
+		if (finish) deflater.finish();
+
+		byte[] buffer = new byte[BUFFER_SIZE];
+		while (finish ? !deflater.finished() : !deflater.needsInput()) {
+			int written = deflater.deflate(buffer);
+			output.write(buffer, 0, written);
+		}
+	}
+
+	/**
+	 * Inflates data in one of several formats, handling any framing around the compressed data.
+	 */
+	private static final class InflateState {
+		private static final int HEADER = 0;
+		private static final int BODY = 1;
+		private static final int TRAILER = 2;
+		private static final int DONE = 3;
+
+		private final Format format;
+		private Inflater inflater;
+
+		private int state;
+		private int crc = 0;
+		private int size = 0;
+
+		/**
+		 * Buffer for the gzip header or trailer, when it is split across several chunks
+		 */
+		private final ByteArrayOutputStream pending = new ByteArrayOutputStream(16);
+
+		private InflateState(Format format) {
+			this.format = format;
+			this.inflater = ZlibPool.inflater(format.nowrap);
+			this.state = format == Format.GZIP ? HEADER : BODY;
 		}
 
-		return new Object[]{baos.toByteArray()};
+		public synchronized boolean isFinished() {
+			return state == DONE;
+		}
+
+		public synchronized byte[] update(ByteBuffer data) throws LuaException {
+			if (inflater == null) throw new LuaException("Stream is closed");
+
+			if (state == HEADER) {
+				pending.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+
+				byte[] header = pending.toByteArray();
+				int length = gzipHeaderLength(header, header.length);
+				if (length < 0) return new byte[0];
+
+				pending.reset();
+				data = ByteBuffer.wrap(header, length, header.length - length);
+				state = BODY;
+			}
+
+			byte[] result = new byte[0];
+			if (state == BODY) {
+				result = inflate(inflater, data);
+				if (format == Format.GZIP) {
+					crc = Checksums.crc32(crc, result, 0, result.length);
+					size += result.length;
+				}
+
+				if (!inflater.finished()) return result;
+
+				if (format != Format.GZIP) {
+					state = DONE;
+					return result;
+				}
+
+				// Anything the inflater didn't consume is the start of the trailer
+				int remaining = inflater.getRemaining();
+				data = ByteBuffer.wrap(data.array(), data.arrayOffset() + data.limit() - remaining, remaining);
+				state = TRAILER;
+			}
+
+			if (state == TRAILER) {
+				pending.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+				if (pending.size() >= 8) {
+					byte[] trailer = pending.toByteArray();
+					if (readIntLE(trailer, 0) != crc) throw new LuaException("Corrupt gzip stream: bad CRC");
+					if (readIntLE(trailer, 4) != size) throw new LuaException("Corrupt gzip stream: bad length");
+					state = DONE;
+				}
+			}
+
+			return result;
+		}
+
+		public synchronized void close() {
+			Inflater inflater = this.inflater;
+			if (inflater != null) {
+				this.inflater = null;
+				ZlibPool.release(inflater, format.nowrap);
+			}
+		}
+	}
+
+	/**
+	 * Deflates data in one of several formats, adding any framing around the compressed data.
+	 */
+	private static final class DeflateState {
+		private final Format format;
+		private Deflater deflater;
+
+		private boolean started = false;
+		private int crc = 0;
+		private int size = 0;
+
+		private DeflateState(int level, Format format) {
+			this.format = format;
+			this.deflater = ZlibPool.deflater(level, format.nowrap);
+		}
+
+		public synchronized byte[] update(ByteBuffer data, boolean finish) throws LuaException {
+			if (deflater == null) throw new LuaException("Stream is closed");
+
+			ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(512, data.remaining() / 2));
+			if (format == Format.GZIP) {
+				if (!started) output.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+
+				crc = Checksums.crc32(crc, data.array(), data.arrayOffset() + data.position(), data.remaining());
+				size += data.remaining();
+			}
+			started = true;
+
+			deflate(deflater, data, finish, output);
+
+			if (finish && format == Format.GZIP) {
+				writeIntLE(output, crc);
+				writeIntLE(output, size);
+			}
+
+			return output.toByteArray();
+		}
+
+		public synchronized void close() {
+			Deflater deflater = this.deflater;
+			if (deflater != null) {
+				this.deflater = null;
+				ZlibPool.release(deflater, format.nowrap);
+			}
+		}
+	}
+
+	/**
+	 * An operation which may be run on a worker thread.
+	 */
+	private interface Operation {
+		Object[] run() throws LuaException;
+	}
+
+	/**
+	 * A handle which processes data in chunks, offloading large chunks in the same way as the API methods.
+	 */
+	private static abstract class DataStream implements ILuaObject, IBinaryHandler {
+		private final DataAPI owner;
+
+		protected DataStream(DataAPI owner) {
+			this.owner = owner;
+		}
+
+		@Override
+		public final Object[] callMethod(@Nonnull ILuaContext context, final int method, @Nonnull final Object[] args) throws LuaException, InterruptedException {
+			if (!owner.shouldOffload(args)) return compute(method, args);
+			return owner.offload(context, new Operation() {
+				@Override
+				public Object[] run() throws LuaException {
+					return compute(method, args);
+				}
+			});
+		}
+
+		protected abstract Object[] compute(int method, Object[] args) throws LuaException;
+
+		/**
+		 * Release any resources this stream holds.
+		 */
+		protected void close() {
+			owner.streams.remove(this);
+		}
+
+		@Override
+		public boolean isBinary(int method) {
+			return true;
+		}
+	}
+
+	/**
+	 * A streaming inflater, which can be fed data in chunks.
+	 */
+	private static final class InflaterStream extends DataStream {
+		private final InflateState state;
+
+		private InflaterStream(DataAPI owner, InflateState state) {
+			super(owner);
+			this.state = state;
+		}
+
+		@Override
+		protected void close() {
+			state.close();
+			super.close();
+		}
+
+		@Nonnull
+		@Override
+		public String[] getMethodNames() {
+			return new String[]{"update", "finish", "close"};
+		}
+
+		@Override
+		protected Object[] compute(int method, Object[] args) throws LuaException {
+			switch (method) {
+				case 0: { // update
+					ByteBuffer data = checkLength(getBinary(args, 0));
+					try {
+						return new Object[]{state.update(data), state.isFinished()};
+					} catch (LuaException e) {
+						close();
+						throw e;
+					}
+				}
+				case 1: { // finish
+					try {
+						byte[] result = state.update(checkLength(optBinary(args, 0, EMPTY)));
+						if (!state.isFinished()) throw new LuaException("Unexpected end of stream");
+						return new Object[]{result};
+					} finally {
+						close();
+					}
+				}
+				case 2: // close
+					close();
+					return null;
+			}
+
+			return null;
+		}
+	}
+
+	/**
+	 * A streaming deflater, which can be fed data in chunks.
+	 */
+	private static final class DeflaterStream extends DataStream {
+		private final DeflateState state;
+
+		private DeflaterStream(DataAPI owner, DeflateState state) {
+			super(owner);
+			this.state = state;
+		}
+
+		@Override
+		protected void close() {
+			state.close();
+			super.close();
+		}
+
+		@Nonnull
+		@Override
+		public String[] getMethodNames() {
+			return new String[]{"update", "finish", "close"};
+		}
+
+		@Override
+		protected Object[] compute(int method, Object[] args) throws LuaException {
+			switch (method) {
+				case 0: // update
+					return new Object[]{state.update(checkLength(getBinary(args, 0)), false)};
+				case 1: { // finish
+					ByteBuffer data = checkLength(optBinary(args, 0, EMPTY));
+					try {
+						return new Object[]{state.update(data, true)};
+					} finally {
+						close();
+					}
+				}
+				case 2: // close
+					close();
+					return null;
+			}
+
+			return null;
+		}
+	}
+
+	/**
+	 * A streaming hash, which can be fed data in chunks.
+	 */
+	private static final class HashStream extends DataStream {
+		private MessageDigest digest;
+
+		private HashStream(DataAPI owner, MessageDigest digest) {
+			super(owner);
+			this.digest = digest;
+		}
+
+		@Nonnull
+		@Override
+		public String[] getMethodNames() {
+			return new String[]{"update", "finish"};
+		}
+
+		@Override
+		protected synchronized Object[] compute(int method, Object[] args) throws LuaException {
+			MessageDigest digest = this.digest;
+			if (digest == null) throw new LuaException("Stream is closed");
+
+			switch (method) {
+				case 0: { // update
+					ByteBuffer data = checkLength(getBinary(args, 0));
+					digest.update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+					return null;
+				}
+				case 1: { // finish
+					ByteBuffer data = checkLength(optBinary(args, 0, EMPTY));
+					digest.update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+
+					this.digest = null;
+					return new Object[]{digest.digest()};
+				}
+			}
+
+			return null;
+		}
 	}
 
 	@Override
 	public boolean willYield(int method) {
-		return false;
+		// Creating streams never yields, everything else may be run on a worker thread.
+		return method != 2 && method != 3 && method != 7;
+	}
+
+	@Override
+	public boolean isBinary(int method) {
+		return true;
 	}
 }
@@ -53,7 +53,16 @@ public class DelayedTasks {
 		if (task == null) throw new NullPointerException("task cannot be null");
 		if (delay < 0) throw new IllegalArgumentException("delay must be >= 0");
 
-		return addTask(new LuaTask(access, task, delay, id));
+		return addTask(new LuaTask(access, task, delay, id, null));
+	}
+
+	public static boolean addTask(IComputerAccess access, ILuaTask task, int delay, TaskCompletion completion) {
+		if (access == null) throw new NullPointerException("access cannot be null");
+		if (task == null) throw new NullPointerException("task cannot be null");
+		if (completion == null) throw new NullPointerException("completion cannot be null");
+		if (delay < 0) throw new IllegalArgumentException("delay must be >= 0");
+
+		return addTask(new LuaTask(access, task, delay, completion.getId(), completion));
 	}
 
 	public static void update() {
@@ -122,10 +131,12 @@ public class DelayedTasks {
 		public final ILuaTask task;
 		public final IExtendedLuaTask extendedTask;
 		private final long id;
+		private final TaskCompletion completion;
 
-		private LuaTask(IComputerAccess access, ILuaTask task, int delay, long id) {
+		private LuaTask(IComputerAccess access, ILuaTask task, int delay, long id, TaskCompletion completion) {
 			this.id = id;
 			this.access = access;
+			this.completion = completion;
 
 			this.task = task;
 			this.extendedTask = task instanceof IExtendedLuaTask ? (IExtendedLuaTask) task : null;
@@ -133,7 +144,10 @@ public class DelayedTasks {
 		}
 
 		private void yieldSuccess(Object[] result) {
-			if (result != null) {
+			if (completion != null) {
+				completion.succeed(result);
+				access.queueEvent(ILuaEnvironment.EVENT_NAME, new Object[]{id});
+			} else if (result != null) {
 				Object[] eventArguments = new Object[result.length + 2];
 				eventArguments[0] = id;
 				eventArguments[1] = true;
@@ -146,7 +160,12 @@ public class DelayedTasks {
 		}
 
 		private void yieldFailure(String message) {
-			access.queueEvent("task_complete", new Object[]{id, false, message});
+			if (completion != null) {
+				completion.fail(message);
+				access.queueEvent(ILuaEnvironment.EVENT_NAME, new Object[]{id});
+			} else {
+				access.queueEvent(ILuaEnvironment.EVENT_NAME, new Object[]{id, false, message});
+			}
 		}
 
 		public boolean update() {
@@ -176,9 +195,11 @@ public class DelayedTasks {
 						extendedTask.update();
 					} catch (LuaException e) {
 						yieldFailure(e.getMessage());
+						return true;
 					} catch (Throwable e) {
 						TweaksLogger.error("Error in task: ", e);
 						yieldFailure("Java Exception Thrown: " + e.toString());
+						return true;
 					}
 				}
 			}
@@ -0,0 +1,189 @@
+package org.squiddev.cctweaks.lua.lib;
+
+import dan200.computercraft.api.lua.LuaException;
+
+/**
+ * A compressor and decompressor for the LZ4 block format.
+ *
+ * Compressed blocks are prefixed with the uncompressed length as a 32 bit little-endian integer, in the same way
+ * as the "size prepended" mode of most LZ4 bindings.
+ */
+public final class LZ4Codec {
+	private static final int MIN_MATCH = 4;
+	private static final int LAST_LITERALS = 5;
+	private static final int MF_LIMIT = 12;
+	private static final int MAX_DISTANCE = 0xFFFF;
+
+	private static final int HASH_LOG = 12;
+	private static final int SKIP_TRIGGER = 6;
+
+	private LZ4Codec() {
+		throw new IllegalStateException("Cannot instantiate singleton " + getClass().getName());
+	}
+
+	public static int maxCompressedLength(int length) {
+		return 4 + length + length / 255 + 16;
+	}
+
+	public static byte[] compress(byte[] src, int offset, int length) {
+		byte[] dest = new byte[maxCompressedLength(length)];
+		writeInt(dest, 0, length);
+
+		int end = offset + length;
+		int anchor = offset;
+		int ip = offset;
+		int op = 4;
+
+		if (length >= MF_LIMIT + 1) {
+			// Stores the position + 1 of the last occurrence of each hash, so 0 is empty.
+			int[] table = new int[1 << HASH_LOG];
+			int matchLimit = end - LAST_LITERALS;
+			int searchLimit = end - MF_LIMIT;
+			int attempts = 1 << SKIP_TRIGGER;
+
+			while (ip <= searchLimit) {
+				int sequence = readInt(src, ip);
+				int hash = hash(sequence);
+				int ref = table[hash] - 1;
+				table[hash] = ip + 1;
+
+				if (ref < offset || ip - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+					// Skip faster through data which doesn't compress well
+					ip += attempts++ >>> SKIP_TRIGGER;
+					continue;
+				}
+
+				attempts = 1 << SKIP_TRIGGER;
+
+				int matchLength = MIN_MATCH;
+				while (ip + matchLength < matchLimit && src[ref + matchLength] == src[ip + matchLength]) matchLength++;
+
+				op = writeSequence(src, anchor, ip - anchor, dest, op, ip - ref, matchLength);
+				ip += matchLength;
+				anchor = ip;
+			}
+		}
+
+		op = writeSequence(src, anchor, end - anchor, dest, op, 0, 0);
+
+		byte[] result = new byte[op];
+		System.arraycopy(dest, 0, result, 0, op);
+		return result;
+	}
+
+	public static byte[] decompress(byte[] src, int offset, int length, int limit) throws LuaException {
+		if (length < 4) throw new LuaException("Malformed LZ4 data");
+
+		int size = readInt(src, offset);
+		if (size < 0 || size > limit) throw new LuaException("Decompressed data is too long");
+
+		byte[] dest = new byte[size];
+		int end = offset + length;
+		int ip = offset + 4;
+		int op = 0;
+
+		while (ip < end) {
+			int token = src[ip++] & 0xFF;
+
+			// Copy literals
+			int literals = token >>> 4;
+			if (literals == 15) {
+				int next;
+				do {
+					if (ip >= end) throw new LuaException("Malformed LZ4 data");
+					next = src[ip++] & 0xFF;
+					literals += next;
+				} while (next == 255);
+			}
+
+			if (literals > end - ip || literals > size - op) throw new LuaException("Malformed LZ4 data");
+			System.arraycopy(src, ip, dest, op, literals);
+			ip += literals;
+			op += literals;
+
+			// The last sequence just contains literals
+			if (ip >= end) break;
+
+			if (end - ip < 2) throw new LuaException("Malformed LZ4 data");
+			int distance = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+			ip += 2;
+			if (distance == 0 || distance > op) throw new LuaException("Malformed LZ4 data");
+
+			int matchLength = token & 15;
+			if (matchLength == 15) {
+				int next;
+				do {
+					if (ip >= end) throw new LuaException("Malformed LZ4 data");
+					next = src[ip++] & 0xFF;
+					matchLength += next;
+				} while (next == 255);
+			}
+			matchLength += MIN_MATCH;
+
+			if (matchLength > size - op) throw new LuaException("Malformed LZ4 data");
+
+			// Matches may overlap with the output, so we have to copy byte by byte
+			int ref = op - distance;
+			for (int i = 0; i < matchLength; i++) dest[op + i] = dest[ref + i];
+			op += matchLength;
+		}
+
+		if (op != size) throw new LuaException("Malformed LZ4 data");
+		return dest;
+	}
+
+	private static int writeSequence(byte[] src, int literalStart, int literals, byte[] dest, int op, int distance, int matchLength) {
+		int tokenPos = op++;
+		int token;
+
+		if (literals >= 15) {
+			token = 15 << 4;
+			op = writeLength(dest, op, literals - 15);
+		} else {
+			token = literals << 4;
+		}
+
+		System.arraycopy(src, literalStart, dest, op, literals);
+		op += literals;
+
+		if (matchLength > 0) {
+			dest[op++] = (byte) distance;
+			dest[op++] = (byte) (distance >>> 8);
+
+			int extra = matchLength - MIN_MATCH;
+			if (extra >= 15) {
+				token |= 15;
+				op = writeLength(dest, op, extra - 15);
+			} else {
+				token |= extra;
+			}
+		}
+
+		dest[tokenPos] = (byte) token;
+		return op;
+	}
+
+	private static int writeLength(byte[] dest, int op, int length) {
+		while (length >= 255) {
+			dest[op++] = (byte) 255;
+			length -= 255;
+		}
+		dest[op++] = (byte) length;
+		return op;
+	}
+
+	private static int hash(int sequence) {
+		return (sequence * -1640531535) >>> (32 - HASH_LOG);
+	}
+
+	private static int readInt(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset + 2] & 0xFF) << 16 | (bytes[offset + 3] & 0xFF) << 24;
+	}
+
+	private static void writeInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) value;
+		bytes[offset + 1] = (byte) (value >>> 8);
+		bytes[offset + 2] = (byte) (value >>> 16);
+		bytes[offset + 3] = (byte) (value >>> 24);
+	}
+}
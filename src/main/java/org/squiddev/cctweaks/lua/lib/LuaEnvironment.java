@@ -24,6 +24,7 @@ import org.squiddev.cctweaks.lua.TweaksLogger;
 import javax.annotation.Nonnull;
 import java.io.File;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -67,33 +68,27 @@ public class LuaEnvironment implements ILuaEnvironment {
 
 	@Override
 	public Object[] executeTask(@Nonnull IComputerAccess access, @Nonnull ILuaContext context, @Nonnull ILuaTask task, int delay) throws LuaException, InterruptedException {
-		long id = issueTask(access, task, delay);
+		TaskCompletion completion = new TaskCompletion(DelayedTasks.getNextId(), ILuaEnvironment.EVENT_NAME);
+		if (!DelayedTasks.addTask(access, task, delay, completion)) throw new LuaException("Too many tasks");
 
-		Object[] response;
 		try {
-			do {
-				response = context.pullEvent(ILuaEnvironment.EVENT_NAME);
-			}
-			while (response.length < 3 || !(response[1] instanceof Number) || !(response[2] instanceof Boolean) || (long) ((Number) response[1]).intValue() != id);
+			return completion.await(context);
 		} catch (InterruptedException e) {
-			DelayedTasks.cancel(id);
+			DelayedTasks.cancel(completion.getId());
 			throw e;
 		} catch (LuaException e) {
-			DelayedTasks.cancel(id);
+			if (!completion.isDone()) DelayedTasks.cancel(completion.getId());
 			throw e;
 		}
+	}
 
-		Object[] returnValues = new Object[response.length - 3];
-		if (!(Boolean) response[2]) {
-			if (response.length >= 4 && response[3] instanceof String) {
-				throw new LuaException((String) response[3]);
-			} else {
-				throw new LuaException();
-			}
-		} else {
-			System.arraycopy(response, 3, returnValues, 0, returnValues.length);
-			return returnValues;
-		}
+	@Nonnull
+	@Override
+	public Object[][] executeTasks(@Nonnull IComputerAccess access, @Nonnull ILuaContext context, @Nonnull List<? extends ILuaTask> tasks, int delay) throws LuaException, InterruptedException {
+		Preconditions.checkNotNull(tasks, "tasks cannot be null");
+		if (tasks.isEmpty()) return new Object[0][];
+
+		return (Object[][]) executeTask(access, context, new BatchTask(tasks.toArray(new ILuaTask[tasks.size()])), delay);
 	}
 
 	@Override
@@ -164,7 +159,36 @@ public class LuaEnvironment implements ILuaEnvironment {
 		return getUsedMachine().getPreBios();
 	}
 
-	private static class LuaAPI implements ILuaAPI, IMethodDescriptor {
+	/**
+	 * Executes several tasks in one go, returning each task's results as an element of the result array.
+	 */
+	private static final class BatchTask implements IExtendedLuaTask {
+		private final ILuaTask[] tasks;
+
+		private BatchTask(ILuaTask[] tasks) {
+			this.tasks = tasks;
+		}
+
+		@Override
+		public void update() throws LuaException {
+			for (ILuaTask task : tasks) {
+				if (task instanceof IExtendedLuaTask) ((IExtendedLuaTask) task).update();
+			}
+		}
+
+		@Override
+		public Object[] execute() throws LuaException {
+			Object[][] results = new Object[tasks.length][];
+			for (int i = 0; i < tasks.length; i++) {
+				Object[] result = tasks[i].execute();
+				results[i] = result == null ? new Object[0] : result;
+			}
+
+			return results;
+		}
+	}
+
+	private static class LuaAPI implements ILuaAPI, IMethodDescriptor, IBinaryHandler {
 		private final org.squiddev.cctweaks.api.lua.ILuaAPI api;
 		private final ILuaAPIFactory factory;
 
@@ -208,6 +232,11 @@ public class LuaEnvironment implements ILuaEnvironment {
 		public boolean willYield(int method) {
 			return !(api instanceof IMethodDescriptor) || ((IMethodDescriptor) api).willYield(method);
 		}
+
+		@Override
+		public boolean isBinary(int method) {
+			return api instanceof IBinaryHandler && ((IBinaryHandler) api).isBinary(method);
+		}
 	}
 
 	private static final class ComputerAccess implements IExtendedComputerAccess {
@@ -0,0 +1,97 @@
+package org.squiddev.cctweaks.lua.lib;
+
+import dan200.computercraft.api.lua.ILuaContext;
+import dan200.computercraft.api.lua.LuaException;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A slot which a task's result is written to.
+ *
+ * Rather than packing results into the completion event and checking every event we are resumed with, the waiting
+ * caller just checks this slot. The event only exists to wake the computer up.
+ *
+ * @see AbstractLuaContext#await(TaskCompletion)
+ */
+public final class TaskCompletion {
+	private final long id;
+	private final String event;
+
+	private volatile boolean done = false;
+	private boolean success;
+	private Object[] result;
+	private String message;
+
+	public TaskCompletion(long id, @Nonnull String event) {
+		this.id = id;
+		this.event = event;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	@Nonnull
+	public String getEvent() {
+		return event;
+	}
+
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * Mark this task as having succeeded. This should be called before the wake-up event is queued.
+	 *
+	 * @param result The result of this task
+	 */
+	public void succeed(Object[] result) {
+		this.success = true;
+		this.result = result;
+		done = true;
+	}
+
+	/**
+	 * Mark this task as having failed. This should be called before the wake-up event is queued.
+	 *
+	 * @param message The error message
+	 */
+	public void fail(String message) {
+		this.success = false;
+		this.message = message;
+		done = true;
+	}
+
+	/**
+	 * Get the result of this task
+	 *
+	 * @return The task's result
+	 * @throws LuaException If the task failed.
+	 */
+	public Object[] getResult() throws LuaException {
+		if (!done) throw new IllegalStateException("Task has not completed");
+
+		if (success) {
+			return result == null ? new Object[0] : result;
+		} else if (message != null) {
+			throw new LuaException(message);
+		} else {
+			throw new LuaException();
+		}
+	}
+
+	/**
+	 * Wait for this task to complete
+	 *
+	 * @param context The context to wait within
+	 * @return The task's result
+	 * @throws LuaException         If the task failed or the computer was terminated
+	 * @throws InterruptedException If the computer was shutdown
+	 */
+	public Object[] await(@Nonnull ILuaContext context) throws LuaException, InterruptedException {
+		if (context instanceof AbstractLuaContext) return ((AbstractLuaContext) context).await(this);
+
+		while (!done) context.pullEvent(event);
+		return getResult();
+	}
+}
@@ -0,0 +1,83 @@
+package org.squiddev.cctweaks.lua.lib;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A pool of {@link Deflater} and {@link Inflater} instances.
+ *
+ * Each instance holds a large native buffer, so it is much cheaper to reset an existing one than create a new one
+ * for every call.
+ */
+public final class ZlibPool {
+	private static final int MAX_POOLED = 16;
+
+	private static final Pool<Deflater> deflaters = new Pool<Deflater>();
+	private static final Pool<Deflater> rawDeflaters = new Pool<Deflater>();
+	private static final Pool<Inflater> inflaters = new Pool<Inflater>();
+	private static final Pool<Inflater> rawInflaters = new Pool<Inflater>();
+
+	private ZlibPool() {
+		throw new IllegalStateException("Cannot instantiate singleton " + getClass().getName());
+	}
+
+	/**
+	 * Get a deflater from the pool
+	 *
+	 * @param level  The compression level to use
+	 * @param nowrap If the raw deflate format should be used, rather than the zlib one.
+	 * @return The acquired deflater. This should be released with {@link #release(Deflater, boolean)}.
+	 */
+	public static Deflater deflater(int level, boolean nowrap) {
+		Deflater deflater = (nowrap ? rawDeflaters : deflaters).acquire();
+		if (deflater == null) return new Deflater(level, nowrap);
+
+		deflater.setLevel(level);
+		return deflater;
+	}
+
+	/**
+	 * Get an inflater from the pool
+	 *
+	 * @param nowrap If the raw deflate format should be used, rather than the zlib one.
+	 * @return The acquired inflater. This should be released with {@link #release(Inflater, boolean)}.
+	 */
+	public static Inflater inflater(boolean nowrap) {
+		Inflater inflater = (nowrap ? rawInflaters : inflaters).acquire();
+		return inflater == null ? new Inflater(nowrap) : inflater;
+	}
+
+	public static void release(Deflater deflater, boolean nowrap) {
+		deflater.reset();
+		if (!(nowrap ? rawDeflaters : deflaters).release(deflater)) deflater.end();
+	}
+
+	public static void release(Inflater inflater, boolean nowrap) {
+		inflater.reset();
+		if (!(nowrap ? rawInflaters : inflaters).release(inflater)) inflater.end();
+	}
+
+	private static final class Pool<T> {
+		private final Queue<T> items = new ConcurrentLinkedQueue<T>();
+		private final AtomicInteger size = new AtomicInteger();
+
+		public T acquire() {
+			T item = items.poll();
+			if (item != null) size.decrementAndGet();
+			return item;
+		}
+
+		public boolean release(T item) {
+			if (size.incrementAndGet() > MAX_POOLED) {
+				size.decrementAndGet();
+				return false;
+			}
+
+			items.offer(item);
+			return true;
+		}
+	}
+}
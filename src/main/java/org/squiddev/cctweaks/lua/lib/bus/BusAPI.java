@@ -0,0 +1,199 @@
+package org.squiddev.cctweaks.lua.lib.bus;
+
+import dan200.computercraft.api.lua.ILuaContext;
+import dan200.computercraft.api.lua.LuaException;
+import dan200.computercraft.api.peripheral.IComputerAccess;
+import org.squiddev.cctweaks.api.lua.IBinaryHandler;
+import org.squiddev.cctweaks.api.lua.IExtendedComputerAccess;
+import org.squiddev.cctweaks.api.lua.ILuaAPI;
+import org.squiddev.cctweaks.api.lua.ILuaAPIFactory;
+import org.squiddev.cctweaks.api.lua.IMethodDescriptor;
+import org.squiddev.cctweaks.lua.Config;
+
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static org.squiddev.cctweaks.lua.lib.ArgumentHelper.*;
+
+/**
+ * Sends messages between computers on the same server, without going through modems or the network.
+ *
+ * Messages are converted from Lua once when published and the same immutable copy is handed to every subscriber, so
+ * publishing to many computers costs little more than publishing to one.
+ *
+ * @see Channel
+ * @see Subscription
+ */
+public class BusAPI implements ILuaAPI, ILuaAPIFactory, IMethodDescriptor, IBinaryHandler {
+	public static final String EVENT = "bus_message";
+
+	/**
+	 * Used to mark tables which are being copied, so recursive tables can be detected.
+	 */
+	private static final Object COPYING = new Object();
+
+	private final IComputerAccess computer;
+	private final Map<String, Subscription> subscriptions = new HashMap<String, Subscription>();
+
+	public BusAPI() {
+		this(null);
+	}
+
+	private BusAPI(IComputerAccess computer) {
+		this.computer = computer;
+	}
+
+	@Override
+	public ILuaAPI create(@Nonnull IExtendedComputerAccess computer) {
+		return Config.APIs.Bus.enabled ? new BusAPI(computer) : null;
+	}
+
+	@Nonnull
+	@Override
+	public String[] getNames() {
+		return new String[]{"bus"};
+	}
+
+	@Override
+	public void startup() {
+	}
+
+	@Override
+	public void shutdown() {
+		for (Map.Entry<String, Subscription> subscription : subscriptions.entrySet()) {
+			Channel.unsubscribe(subscription.getKey(), subscription.getValue());
+		}
+
+		subscriptions.clear();
+	}
+
+	@Override
+	public void advance(double timestep) {
+	}
+
+	@Nonnull
+	@Override
+	public String[] getMethodNames() {
+		return new String[]{"subscribe", "unsubscribe", "publish", "receive"};
+	}
+
+	@Override
+	public Object[] callMethod(@Nonnull ILuaContext context, int method, @Nonnull Object[] arguments) throws LuaException, InterruptedException {
+		switch (method) {
+			case 0: { // subscribe
+				String name = getString(arguments, 0);
+				if (subscriptions.containsKey(name)) return new Object[]{false};
+				if (subscriptions.size() >= Config.APIs.Bus.maxSubscriptions) throw new LuaException("Too many subscriptions");
+
+				Subscription subscription = new Subscription(computer, name, Config.APIs.Bus.capacity);
+				subscriptions.put(name, subscription);
+				Channel.subscribe(name, subscription);
+				return new Object[]{true};
+			}
+			case 1: { // unsubscribe
+				String name = getString(arguments, 0);
+				Subscription subscription = subscriptions.remove(name);
+				if (subscription == null) return new Object[]{false};
+
+				Channel.unsubscribe(name, subscription);
+				return new Object[]{true};
+			}
+			case 2: { // publish
+				String name = getString(arguments, 0);
+				if (arguments.length < 2 || arguments[1] == null) throw badArgument(null, 1, "value");
+
+				Channel channel = Channel.get(name);
+				if (channel == null) return new Object[]{0};
+
+				int[] size = new int[]{0};
+				Object message = freeze(arguments[1], new IdentityHashMap<Object, Object>(), size);
+				return new Object[]{channel.publish(message)};
+			}
+			case 3: { // receive
+				String name = getString(arguments, 0);
+				int limit = optInt(arguments, 1, Integer.MAX_VALUE);
+				if (limit <= 0) throw new LuaException("Limit must be positive");
+
+				Subscription subscription = subscriptions.get(name);
+				if (subscription == null) throw new LuaException("Not subscribed to " + name);
+
+				subscription.acknowledge();
+
+				Map<Integer, Object> result = new HashMap<Integer, Object>();
+				Object message;
+				while (result.size() < limit && (message = subscription.poll()) != null) {
+					result.put(result.size() + 1, message);
+				}
+
+				subscription.renotify();
+				return new Object[]{result};
+			}
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Copy a message into a form which can be shared between computers.
+	 *
+	 * Tables are copied into unmodifiable maps, and strings are copied out of the publisher's Lua state. Tables
+	 * referenced multiple times are only copied once.
+	 *
+	 * @param value  The value to copy
+	 * @param copied Tables which have already been copied, or {@link #COPYING} if they are being copied.
+	 * @param size   The approximate size of the message so far, in bytes
+	 * @return The copied value
+	 * @throws LuaException If the value cannot be sent or is too large.
+	 */
+	private static Object freeze(Object value, IdentityHashMap<Object, Object> copied, int[] size) throws LuaException {
+		Object result;
+		int length;
+		if (value instanceof String) {
+			result = value;
+			length = ((String) value).length();
+		} else if (value instanceof byte[]) {
+			result = value;
+			length = ((byte[]) value).length;
+		} else if (value instanceof ByteBuffer) {
+			ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+			byte[] bytes = new byte[buffer.remaining()];
+			buffer.get(bytes);
+
+			result = bytes;
+			length = bytes.length;
+		} else if (value instanceof Number || value instanceof Boolean) {
+			result = value;
+			length = 8;
+		} else if (value instanceof Map) {
+			Object existing = copied.get(value);
+			if (existing == COPYING) throw new LuaException("Cannot send recursive tables");
+			if (existing != null) return existing;
+
+			copied.put(value, COPYING);
+			Map<Object, Object> table = new HashMap<Object, Object>();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				table.put(freeze(entry.getKey(), copied, size), freeze(entry.getValue(), copied, size));
+			}
+
+			result = Collections.unmodifiableMap(table);
+			copied.put(value, result);
+			length = 8;
+		} else {
+			throw new LuaException("Cannot send " + getType(value));
+		}
+
+		if ((size[0] += length) > Config.APIs.Bus.maxMessageSize) throw new LuaException("Message is too large");
+		return result;
+	}
+
+	@Override
+	public boolean willYield(int method) {
+		return false;
+	}
+
+	@Override
+	public boolean isBinary(int method) {
+		return method == 2;
+	}
+}
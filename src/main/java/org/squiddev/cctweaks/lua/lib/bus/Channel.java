@@ -0,0 +1,63 @@
+package org.squiddev.cctweaks.lua.lib.bus;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A named channel, shared by every computer on the server.
+ *
+ * Channels only exist while something is subscribed to them. Publishing never locks: subscribing and unsubscribing
+ * are rare, so the subscriber list is copied whenever it changes.
+ */
+final class Channel {
+	private static final ConcurrentHashMap<String, Channel> channels = new ConcurrentHashMap<String, Channel>();
+
+	/**
+	 * Guards adding and removing channels, so a channel is never removed while someone is subscribing to it.
+	 */
+	private static final Object lock = new Object();
+
+	private final CopyOnWriteArrayList<Subscription> subscribers = new CopyOnWriteArrayList<Subscription>();
+
+	/**
+	 * Find a channel, if anything is subscribed to it.
+	 *
+	 * @param name The channel's name
+	 * @return The channel, or {@code null} if it has no subscribers.
+	 */
+	public static Channel get(String name) {
+		return channels.get(name);
+	}
+
+	public static void subscribe(String name, Subscription subscription) {
+		synchronized (lock) {
+			Channel channel = channels.get(name);
+			if (channel == null) channels.put(name, channel = new Channel());
+			channel.subscribers.add(subscription);
+		}
+	}
+
+	public static void unsubscribe(String name, Subscription subscription) {
+		synchronized (lock) {
+			Channel channel = channels.get(name);
+			if (channel == null) return;
+
+			channel.subscribers.remove(subscription);
+			if (channel.subscribers.isEmpty()) channels.remove(name);
+		}
+	}
+
+	/**
+	 * Deliver a message to every subscriber.
+	 *
+	 * @param message The message to deliver. This is shared between all subscribers, so must not be modified.
+	 * @return The number of subscribers the message was delivered to. Subscribers whose buffers are full are skipped.
+	 */
+	public int publish(Object message) {
+		int delivered = 0;
+		for (Subscription subscription : subscribers) {
+			if (subscription.offer(message)) delivered++;
+		}
+		return delivered;
+	}
+}
@@ -0,0 +1,102 @@
+package org.squiddev.cctweaks.lua.lib.bus;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded queue which can be written to and read from by many threads without locking.
+ *
+ * Each slot has a sequence number which says whether it is ready to be written to ({@code sequence == position}) or
+ * read from ({@code sequence == position + 1}). Writers and readers claim a position by incrementing the tail or
+ * head, and then publish the slot by updating its sequence.
+ *
+ * @param <T> The type of item stored in this buffer
+ */
+final class RingBuffer<T> {
+	private final int mask;
+	private final AtomicReferenceArray<T> items;
+	private final AtomicLongArray sequences;
+
+	private final AtomicLong head = new AtomicLong(0);
+	private final AtomicLong tail = new AtomicLong(0);
+
+	/**
+	 * Create a new ring buffer
+	 *
+	 * @param capacity The minimum number of items this can hold. This is rounded up to a power of two, and at least
+	 *                 two, as a single slot's sequence can't tell whether it is full or ready for the next lap.
+	 */
+	RingBuffer(int capacity) {
+		int size = 2;
+		while (size < capacity) size <<= 1;
+
+		mask = size - 1;
+		items = new AtomicReferenceArray<T>(size);
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) sequences.set(i, i);
+	}
+
+	/**
+	 * Add an item to the buffer.
+	 *
+	 * @param item The item to add. This must not be {@code null}.
+	 * @return If the item was added, or {@code false} if the buffer is full.
+	 */
+	public boolean offer(T item) {
+		long position = tail.get();
+		while (true) {
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - position;
+
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					items.lazySet(index, item);
+					sequences.lazySet(index, position + 1);
+					return true;
+				}
+			} else if (difference < 0) {
+				// The slot still holds an item from the previous lap.
+				return false;
+			}
+
+			position = tail.get();
+		}
+	}
+
+	/**
+	 * Remove the oldest item from the buffer.
+	 *
+	 * @return The removed item, or {@code null} if the buffer is empty.
+	 */
+	public T poll() {
+		long position = head.get();
+		while (true) {
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - (position + 1);
+
+			if (difference == 0) {
+				if (head.compareAndSet(position, position + 1)) {
+					T item = items.get(index);
+					items.lazySet(index, null);
+					sequences.lazySet(index, position + mask + 1);
+					return item;
+				}
+			} else if (difference < 0) {
+				// The slot hasn't been written to yet.
+				return null;
+			}
+
+			position = head.get();
+		}
+	}
+
+	/**
+	 * Whether this buffer is empty. This may be out of date as soon as it is returned.
+	 *
+	 * @return If this buffer has no items.
+	 */
+	public boolean isEmpty() {
+		return tail.get() - head.get() <= 0;
+	}
+}
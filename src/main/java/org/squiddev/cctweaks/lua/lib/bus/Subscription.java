@@ -0,0 +1,68 @@
+package org.squiddev.cctweaks.lua.lib.bus;
+
+import dan200.computercraft.api.peripheral.IComputerAccess;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A computer's subscription to a channel, and the messages it has not yet received.
+ *
+ * Rather than queuing an event per message, which ComputerCraft would silently drop once the computer's event queue
+ * is full, messages wait in a bounded buffer. A single {@link BusAPI#EVENT} is queued when the buffer stops being
+ * empty, and the computer then collects everything with {@code receive}.
+ */
+final class Subscription {
+	private final IComputerAccess computer;
+	private final String name;
+	private final RingBuffer<Object> messages;
+
+	/**
+	 * Whether an event has been queued which the computer has not yet responded to.
+	 */
+	private final AtomicBoolean notified = new AtomicBoolean(false);
+
+	Subscription(IComputerAccess computer, String name, int capacity) {
+		this.computer = computer;
+		this.name = name;
+		this.messages = new RingBuffer<Object>(capacity);
+	}
+
+	/**
+	 * Add a message, notifying the computer if needed. This may be called from any thread.
+	 *
+	 * @param message The message to add
+	 * @return If the message was added, or {@code false} if the buffer is full.
+	 */
+	public boolean offer(Object message) {
+		if (!messages.offer(message)) return false;
+
+		if (notified.compareAndSet(false, true)) computer.queueEvent(BusAPI.EVENT, new Object[]{name});
+		return true;
+	}
+
+	/**
+	 * Remove the oldest message. This should only be called by the subscribed computer.
+	 *
+	 * @return The message, or {@code null} if there are none.
+	 */
+	public Object poll() {
+		return messages.poll();
+	}
+
+	/**
+	 * Mark the computer as having responded to the last event. This must be called before polling, so messages added
+	 * while polling will queue another event.
+	 */
+	public void acknowledge() {
+		notified.set(false);
+	}
+
+	/**
+	 * Queue another event if there are messages left after polling.
+	 */
+	public void renotify() {
+		if (!messages.isEmpty() && notified.compareAndSet(false, true)) {
+			computer.queueEvent(BusAPI.EVENT, new Object[]{name});
+		}
+	}
+}
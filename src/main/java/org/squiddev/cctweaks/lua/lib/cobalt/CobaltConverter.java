@@ -3,6 +3,7 @@ package org.squiddev.cctweaks.lua.lib.cobalt;
 import org.squiddev.cctweaks.lua.lib.luaj.LuaJConverter;
 import org.squiddev.cobalt.*;
 
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.Map;
@@ -76,6 +77,30 @@ public class CobaltConverter {
 		}
 	}
 
+	/**
+	 * Convert values, leaving top-level strings as {@link ByteBuffer}s which wrap the string's backing array.
+	 *
+	 * @param values The values to convert
+	 * @param start  The index to start converting from
+	 * @return The converted values
+	 * @see org.squiddev.cctweaks.api.lua.IBinaryHandler
+	 */
+	public static Object[] toBinaryObjects(Varargs values, int start) {
+		int count = values.count();
+		Object[] objects = new Object[count - start + 1];
+		for (int n = start; n <= count; n++) {
+			int i = n - start;
+			LuaValue value = values.arg(n);
+			if (value.type() == TSTRING) {
+				LuaString string = (LuaString) value;
+				objects[i] = ByteBuffer.wrap(string.bytes, string.offset, string.length);
+			} else {
+				objects[i] = toObject(value, null, false);
+			}
+		}
+		return objects;
+	}
+
 	public static Object[] toObjects(Varargs values, int start, boolean binary) {
 		int count = values.count();
 		Object[] objects = new Object[count - start + 1];
@@ -4,6 +4,7 @@ import dan200.computercraft.api.lua.ILuaObject;
 import dan200.computercraft.api.lua.LuaException;
 import dan200.computercraft.core.apis.ILuaAPI;
 import dan200.computercraft.core.computer.Computer;
+import org.squiddev.cctweaks.api.lua.IBinaryHandler;
 import org.squiddev.cctweaks.api.lua.IExtendedLuaMachine;
 import org.squiddev.cctweaks.lua.Config;
 import org.squiddev.cctweaks.lua.TweaksLogger;
@@ -159,6 +160,9 @@ public class CobaltMachine extends AbstractLuaContext implements IExtendedLuaMac
 		if (mainThread == null) return;
 
 		if (eventFilter == null || eventName == null || eventName.equals(eventFilter) || eventName.equals("terminate")) {
+			// The main coroutine is blocked on a task, so this event would just be discarded.
+			if (eventName != null && canSkipEvent(eventName)) return;
+
 			try {
 				Varargs args = Constants.NONE;
 				if (eventName != null) {
@@ -200,6 +204,11 @@ public class CobaltMachine extends AbstractLuaContext implements IExtendedLuaMac
 		}
 	}
 
+	@Override
+	protected boolean isMainCoroutine() {
+		return mainThread != null && state.getCurrentThread() == mainThread;
+	}
+
 	@Override
 	public void softAbort(String message) {
 		TweaksLogger.debug(message);
@@ -238,9 +247,11 @@ public class CobaltMachine extends AbstractLuaContext implements IExtendedLuaMac
 	private LuaValue wrapLuaObject(final ILuaObject object) {
 		String[] methods = object.getMethodNames();
 		LuaTable result = new LuaTable(0, methods.length);
+		IBinaryHandler binaryHandler = object instanceof IBinaryHandler ? (IBinaryHandler) object : null;
 
 		for (int i = 0; i < methods.length; i++) {
 			final int method = i;
+			final boolean binary = binaryHandler != null && binaryHandler.isBinary(i);
 			result.rawset(methods[i], new VarArgFunction() {
 				@Override
 				public Varargs invoke(LuaState state, Varargs args) throws LuaError {
@@ -254,8 +265,9 @@ public class CobaltMachine extends AbstractLuaContext implements IExtendedLuaMac
 					}
 
 					try {
+						Object[] arguments = binary ? CobaltConverter.toBinaryObjects(args, 1) : CobaltConverter.toObjects(args, 1, false);
 						@SuppressWarnings("deprecation")
-						Object[] results = object.callMethod(CobaltMachine.this, method, CobaltConverter.toObjects(args, 1, false));
+						Object[] results = object.callMethod(CobaltMachine.this, method, arguments);
 						return toValues(results);
 					} catch (LuaException e) {
 						throw new LuaError(e.getMessage(), e.getLevel());
@@ -1,12 +1,14 @@
 package org.squiddev.cctweaks.lua.lib.socket;
 
-import dan200.computercraft.ComputerCraft;
+import com.google.common.util.concurrent.Futures;
 import dan200.computercraft.api.lua.ILuaContext;
 import dan200.computercraft.api.lua.ILuaObject;
 import dan200.computercraft.api.lua.LuaException;
 import dan200.computercraft.api.peripheral.IComputerAccess;
+import io.netty.channel.Channel;
+import org.squiddev.cctweaks.api.lua.IBinaryHandler;
 import org.squiddev.cctweaks.api.lua.IMethodDescriptor;
-import org.squiddev.cctweaks.lua.lib.BinaryConverter;
+import org.squiddev.cctweaks.lua.Config;
 import org.squiddev.cctweaks.lua.lib.LuaHelpers;
 
 import javax.annotation.Nonnull;
@@ -15,11 +17,17 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public abstract class AbstractConnection implements ILuaObject, IMethodDescriptor, ISocketListener {
+import static org.squiddev.cctweaks.lua.lib.ArgumentHelper.getBinary;
+
+public abstract class AbstractConnection implements ILuaObject, IMethodDescriptor, IBinaryHandler, ISocketListener {
 	private final SocketAPI owner;
 	private final IComputerAccess computer;
 	private final int id;
@@ -27,6 +35,16 @@ public abstract class AbstractConnection implements ILuaObject, IMethodDescripto
 	private Future<Object> address;
 	private boolean isResolved = false;
 
+	/**
+	 * Whether a {@code socket_message} event has been queued and not yet followed by a read.
+	 */
+	private final AtomicBoolean messageQueued = new AtomicBoolean(false);
+
+	/**
+	 * Whether a flush has been scheduled and has not yet run.
+	 */
+	private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
 	public AbstractConnection(SocketAPI owner, IComputerAccess computer, int id) throws IOException {
 		this.owner = owner;
 		this.computer = computer;
@@ -43,6 +61,13 @@ public abstract class AbstractConnection implements ILuaObject, IMethodDescripto
 		});
 	}
 
+	/**
+	 * Mark this connection as open, for connections which were accepted by a server rather than opened by us.
+	 */
+	protected final void openAccepted() {
+		address = Futures.<Object>immediateFuture(null);
+	}
+
 	public void close(boolean remove) {
 		if (remove) owner.connections.remove(this);
 
@@ -85,18 +110,23 @@ public abstract class AbstractConnection implements ILuaObject, IMethodDescripto
 	}
 
 	protected InetSocketAddress connect(URI uri, int port) throws Exception {
-		InetAddress resolved = InetAddress.getByName(uri.getHost());
-		if (!ComputerCraft.http_whitelist.matches(resolved) || ComputerCraft.http_blacklist.matches(resolved)) {
-			throw new LuaException("Domain not permitted");
-		}
+		InetAddress resolved = AddressCache.resolve(uri.getHost());
+		if (!AddressCache.isPermitted(resolved)) throw new LuaException("Domain not permitted");
 
 		return new InetSocketAddress(resolved, uri.getPort() == -1 ? port : uri.getPort());
 	}
 
-	protected abstract int write(byte[] contents) throws LuaException, InterruptedException;
+	protected abstract int write(ByteBuffer contents) throws LuaException, InterruptedException;
 
 	protected abstract byte[] read(int count) throws LuaException, InterruptedException;
 
+	/**
+	 * Whether there is received data which has not been read yet.
+	 *
+	 * @return If there is data to read.
+	 */
+	protected abstract boolean hasUnread();
+
 	@Nonnull
 	@Override
 	public String[] getMethodNames() {
@@ -122,23 +152,13 @@ public abstract class AbstractConnection implements ILuaObject, IMethodDescripto
 					}
 				}
 
+				startRead();
 				byte[] contents = read(count);
+				finishRead();
 				return new Object[]{contents};
 			}
 			case 3: {
-				byte[] stream;
-				if (arguments.length == 0) throw new LuaException("Expected string");
-
-				Object argument = arguments[0];
-				if (argument instanceof byte[]) {
-					stream = (byte[]) argument;
-				} else if (argument instanceof String) {
-					stream = BinaryConverter.toBytes((String) argument);
-				} else {
-					throw new LuaException("Expected string");
-				}
-
-				int written = write(stream);
+				int written = write(getBinary(arguments, 0));
 				return new Object[]{written};
 			}
 			case 4:
@@ -148,11 +168,54 @@ public abstract class AbstractConnection implements ILuaObject, IMethodDescripto
 		}
 	}
 
+	/**
+	 * Flush a channel after {@link Config.APIs.Socket#flushDelay}, rather than immediately. This means several writes
+	 * made in quick succession are sent together, rather than each waking the event loop and making a system call.
+	 *
+	 * @param channel The channel to flush
+	 */
+	protected final void scheduleFlush(final Channel channel) {
+		if (!flushScheduled.compareAndSet(false, true)) return;
+
+		try {
+			channel.eventLoop().schedule(new Runnable() {
+				@Override
+				public void run() {
+					flushScheduled.set(false);
+					channel.flush();
+				}
+			}, Config.APIs.Socket.flushDelay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// The event loop is shutting down, so there is nothing to flush to.
+			flushScheduled.set(false);
+		}
+	}
+
+	/**
+	 * Should be called before reading from this connection, so new data will queue another {@code socket_message}.
+	 */
+	protected final void startRead() {
+		messageQueued.set(false);
+	}
+
+	/**
+	 * Should be called after reading from this connection.
+	 */
+	protected final void finishRead() {
+		// If this didn't read everything then let the computer know there is more to come.
+		if (hasUnread()) onMessage();
+	}
+
 	@Override
 	public boolean willYield(int method) {
 		return false;
 	}
 
+	@Override
+	public boolean isBinary(int method) {
+		return method == 3;
+	}
+
 	@Override
 	public void onClosed() {
 		close(true);
@@ -164,9 +227,18 @@ public abstract class AbstractConnection implements ILuaObject, IMethodDescripto
 		computer.queueEvent("socket_connect", new Object[]{id});
 	}
 
+	/**
+	 * Notify the computer that there is data to read. At most one event is queued until the computer next reads from
+	 * this connection, so a chatty peer cannot flood the computer's event queue.
+	 */
 	@Override
 	public void onMessage() {
-		computer.queueEvent("socket_message", new Object[]{id});
+		if (messageQueued.compareAndSet(false, true)) computer.queueEvent("socket_message", new Object[]{id});
+	}
+
+	@Override
+	public void onDrain() {
+		computer.queueEvent("socket_drain", new Object[]{id});
 	}
 
 	public void onError(String message) {
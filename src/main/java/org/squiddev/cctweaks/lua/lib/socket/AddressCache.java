@@ -0,0 +1,167 @@
+package org.squiddev.cctweaks.lua.lib.socket;
+
+import dan200.computercraft.ComputerCraft;
+import org.squiddev.cctweaks.lua.Config;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A cache of resolved addresses, and whether they are permitted by the whitelist and blacklist, which is shared by
+ * all computers.
+ *
+ * Concurrent lookups of the same host share a single request, so many computers reconnecting at once only resolve
+ * each host once. Failed lookups are cached too, for {@link Config.APIs.Socket#dnsNegativeCacheTime}.
+ */
+public final class AddressCache {
+	private static final int MAX_ENTRIES = 1024;
+
+	private static final ConcurrentHashMap<String, Lookup> lookups = new ConcurrentHashMap<String, Lookup>();
+	private static final ConcurrentHashMap<InetAddress, Verdict> verdicts = new ConcurrentHashMap<InetAddress, Verdict>();
+
+	private AddressCache() {
+		throw new IllegalStateException("Cannot instantiate singleton " + getClass().getName());
+	}
+
+	/**
+	 * Resolve a host name, using a cached result if possible.
+	 *
+	 * @param host The host to resolve
+	 * @return The resolved address
+	 * @throws UnknownHostException If the host could not be resolved.
+	 * @throws InterruptedException If the thread was interrupted while waiting for another lookup.
+	 */
+	public static InetAddress resolve(String host) throws UnknownHostException, InterruptedException {
+		if (Config.APIs.Socket.dnsCacheTime <= 0) return InetAddress.getByName(host);
+
+		while (true) {
+			long now = System.currentTimeMillis();
+			Lookup lookup = lookups.get(host);
+			if (lookup != null && !lookup.isExpired(now)) return lookup.address();
+
+			Lookup created = new Lookup(host);
+			boolean added = lookup == null ? lookups.putIfAbsent(host, created) == null : lookups.replace(host, lookup, created);
+			if (added) {
+				prune(lookups, now);
+				created.run();
+				return created.address();
+			}
+
+			// Someone else started a lookup first, so try again with theirs.
+		}
+	}
+
+	/**
+	 * Determine whether an address is permitted by the whitelist and blacklist, using a cached verdict if possible.
+	 *
+	 * @param address The address to check
+	 * @return Whether connections to this address are permitted.
+	 */
+	public static boolean isPermitted(InetAddress address) {
+		int cacheTime = Config.APIs.Socket.dnsCacheTime;
+		if (cacheTime <= 0) return check(address);
+
+		long now = System.currentTimeMillis();
+		Verdict verdict = verdicts.get(address);
+		if (verdict != null && !verdict.isExpired(now)) return verdict.permitted;
+
+		boolean permitted = check(address);
+		verdicts.put(address, new Verdict(permitted, now + cacheTime * 1000L));
+		prune(verdicts, now);
+		return permitted;
+	}
+
+	private static boolean check(InetAddress address) {
+		return ComputerCraft.http_whitelist.matches(address) && !ComputerCraft.http_blacklist.matches(address);
+	}
+
+	/**
+	 * Remove expired entries once the cache gets too large, clearing it entirely if that isn't enough.
+	 */
+	private static <K, V extends Expiring> void prune(ConcurrentHashMap<K, V> cache, long now) {
+		if (cache.size() <= MAX_ENTRIES) return;
+
+		for (Iterator<Map.Entry<K, V>> iterator = cache.entrySet().iterator(); iterator.hasNext(); ) {
+			if (iterator.next().getValue().isExpired(now)) iterator.remove();
+		}
+
+		if (cache.size() > MAX_ENTRIES) cache.clear();
+	}
+
+	private interface Expiring {
+		boolean isExpired(long now);
+	}
+
+	private static final class Verdict implements Expiring {
+		private final boolean permitted;
+		private final long expires;
+
+		private Verdict(boolean permitted, long expires) {
+			this.permitted = permitted;
+			this.expires = expires;
+		}
+
+		@Override
+		public boolean isExpired(long now) {
+			return now >= expires;
+		}
+	}
+
+	private static final class Lookup extends FutureTask<InetAddress> implements Expiring {
+		/**
+		 * When this lookup expires. This is only set once the lookup has finished.
+		 */
+		private volatile long expires = Long.MAX_VALUE;
+
+		private Lookup(final String host) {
+			super(new Callable<InetAddress>() {
+				@Override
+				public InetAddress call() throws Exception {
+					return InetAddress.getByName(host);
+				}
+			});
+		}
+
+		@Override
+		protected void set(InetAddress address) {
+			expires = System.currentTimeMillis() + Config.APIs.Socket.dnsCacheTime * 1000L;
+			super.set(address);
+		}
+
+		@Override
+		protected void setException(Throwable e) {
+			expires = System.currentTimeMillis() + Config.APIs.Socket.dnsNegativeCacheTime * 1000L;
+			super.setException(e);
+		}
+
+		@Override
+		public boolean isExpired(long now) {
+			return now >= expires;
+		}
+
+		/**
+		 * Wait for this lookup to finish.
+		 *
+		 * @return The resolved address
+		 * @throws UnknownHostException If the host could not be resolved.
+		 * @throws InterruptedException If the thread was interrupted while waiting.
+		 */
+		public InetAddress address() throws UnknownHostException, InterruptedException {
+			try {
+				return get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof UnknownHostException) throw (UnknownHostException) cause;
+				if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+				if (cause instanceof Error) throw (Error) cause;
+				throw new RuntimeException(cause);
+			}
+		}
+	}
+}
@@ -0,0 +1,250 @@
+package org.squiddev.cctweaks.lua.lib.socket;
+
+import com.google.common.collect.ObjectArrays;
+import dan200.computercraft.api.lua.ILuaContext;
+import dan200.computercraft.api.lua.LuaException;
+import dan200.computercraft.api.peripheral.IComputerAccess;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.socket.DatagramPacket;
+import org.squiddev.cctweaks.lua.Config;
+import org.squiddev.cctweaks.lua.lib.LuaHelpers;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.squiddev.cctweaks.lua.lib.ArgumentHelper.optInt;
+
+/**
+ * A UDP socket, which sends to and receives from a single address.
+ *
+ * The underlying channel is bound but not connected: a connected socket reports ICMP errors such as an unreachable
+ * port as read failures, which Netty handles by closing the channel. Instead every datagram is addressed to the
+ * remote address, and datagrams from anywhere else are ignored.
+ *
+ * Datagrams are received as soon as they arrive. If more than {@link Config.APIs.Socket#receiveHighWater} bytes are
+ * waiting to be read then any new datagrams are dropped.
+ *
+ * Sending is limited in the same way as TCP connections: at most {@link Config.APIs.Socket#sendBufferSize} bytes may
+ * be queued at once. A datagram can't be cut short, so one which doesn't fit isn't sent at all, and a
+ * {@code socket_drain} event is queued once everything has been sent.
+ */
+public class DatagramConnection extends AbstractConnection {
+	/**
+	 * The largest payload a UDP datagram can hold.
+	 */
+	private static final int MAX_DATAGRAM_SIZE = 65507;
+
+	private final Queue<byte[]> received = new ConcurrentLinkedQueue<byte[]>();
+	private final AtomicInteger receivedSize = new AtomicInteger(0);
+
+	/**
+	 * The number of bytes which have been written but not yet sent.
+	 */
+	private final AtomicInteger pending = new AtomicInteger(0);
+
+	/**
+	 * Whether a datagram didn't fit, and so a {@code socket_drain} event should be queued once everything is sent.
+	 */
+	private final AtomicBoolean drainWanted = new AtomicBoolean(false);
+
+	private InetSocketAddress remote;
+	private ChannelFuture channelFuture;
+
+	public DatagramConnection(SocketAPI owner, IComputerAccess computer, int id) throws IOException {
+		super(owner, computer, id);
+	}
+
+	@Override
+	protected InetSocketAddress connect(URI uri, int port) throws Exception {
+		InetSocketAddress address = remote = super.connect(uri, port);
+
+		channelFuture = SocketPoller.datagramBootstrap()
+			.option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(MAX_DATAGRAM_SIZE))
+			.handler(new ClientListener())
+			.bind(0);
+		channelFuture.addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(ChannelFuture future) throws Exception {
+				// Failures are reported when the connection is next used.
+				onConnectFinished();
+			}
+		});
+
+		return address;
+	}
+
+	@Override
+	protected boolean checkConnected() throws LuaException, InterruptedException {
+		if (!super.checkConnected()) return false;
+
+		if (!channelFuture.isDone()) return false;
+		if (!channelFuture.isSuccess()) {
+			throw LuaHelpers.rewriteException(channelFuture.cause(), "Cannot open socket");
+		}
+
+		return true;
+	}
+
+	@Override
+	public void close(boolean remove) {
+		super.close(remove);
+
+		if (channelFuture != null) {
+			channelFuture.channel().close();
+			channelFuture = null;
+		}
+
+		received.clear();
+		receivedSize.set(0);
+	}
+
+	@Override
+	protected int write(ByteBuffer contents) throws LuaException, InterruptedException {
+		final int length = contents.remaining();
+		if (length > MAX_DATAGRAM_SIZE) throw new LuaException("Datagram is larger than " + MAX_DATAGRAM_SIZE + " bytes");
+
+		if (checkConnected()) {
+			// Always allow one datagram to be queued, even if it is larger than the buffer.
+			int queued = pending.get();
+			if (queued > 0 && queued + length > Config.APIs.Socket.sendBufferSize) {
+				drainWanted.set(true);
+
+				// The queue may have emptied before we asked to be told about it.
+				if (pending.get() == 0 && drainWanted.compareAndSet(true, false)) onDrain();
+				return 0;
+			}
+
+			pending.addAndGet(length);
+			Channel channel = channelFuture.channel();
+			channel.write(new DatagramPacket(Unpooled.wrappedBuffer(contents), remote)).addListener(new ChannelFutureListener() {
+				@Override
+				public void operationComplete(ChannelFuture future) throws Exception {
+					// A failed datagram doesn't close the socket, so it still counts as sent.
+					if (pending.addAndGet(-length) == 0 && drainWanted.compareAndSet(true, false)) onDrain();
+				}
+			});
+			scheduleFlush(channel);
+			return length;
+		} else {
+			return 0;
+		}
+	}
+
+	/**
+	 * Read the next datagram. Anything beyond {@code count} bytes is discarded.
+	 *
+	 * @param count The maximum number of bytes to read
+	 * @return The datagram's contents, an empty array if there is none, or {@code null} if the socket is closed.
+	 */
+	@Override
+	protected byte[] read(int count) throws LuaException, InterruptedException {
+		if (!checkConnected()) return new byte[0];
+
+		byte[] datagram = poll();
+		if (datagram == null) return channelFuture.channel().isActive() ? new byte[0] : null;
+
+		if (datagram.length <= count) return datagram;
+
+		byte[] result = new byte[count];
+		System.arraycopy(datagram, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * Read several datagrams at once.
+	 *
+	 * @param limit The maximum number of datagrams to read
+	 * @return A list of datagrams, which is empty if none are available, or {@code null} if the socket is closed.
+	 */
+	private Map<Integer, byte[]> receive(int limit) throws LuaException, InterruptedException {
+		Map<Integer, byte[]> result = new HashMap<Integer, byte[]>();
+		if (!checkConnected()) return result;
+
+		byte[] datagram;
+		while (result.size() < limit && (datagram = poll()) != null) {
+			result.put(result.size() + 1, datagram);
+		}
+
+		if (result.isEmpty() && !channelFuture.channel().isActive()) return null;
+		return result;
+	}
+
+	private byte[] poll() {
+		byte[] datagram = received.poll();
+		if (datagram != null) receivedSize.addAndGet(-datagram.length);
+		return datagram;
+	}
+
+	@Override
+	protected boolean hasUnread() {
+		return !received.isEmpty();
+	}
+
+	@Nonnull
+	@Override
+	public String[] getMethodNames() {
+		return ObjectArrays.concat(super.getMethodNames(), new String[]{"receive"}, String.class);
+	}
+
+	@Override
+	public Object[] callMethod(@Nonnull ILuaContext context, int method, @Nonnull Object[] arguments) throws LuaException, InterruptedException {
+		switch (method) {
+			case 5: { // receive
+				int limit = optInt(arguments, 0, Integer.MAX_VALUE);
+				if (limit <= 0) throw new LuaException("Limit must be positive");
+
+				startRead();
+				Map<Integer, byte[]> result = receive(limit);
+				finishRead();
+				return new Object[]{result};
+			}
+			default:
+				return super.callMethod(context, method, arguments);
+		}
+	}
+
+	private class ClientListener extends SimpleChannelInboundHandler<DatagramPacket> {
+		@Override
+		public void channelInactive(ChannelHandlerContext ctx) {
+			DatagramConnection.this.onClosed();
+		}
+
+		@Override
+		protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) {
+			if (!remote.equals(packet.sender())) return;
+
+			ByteBuf content = packet.content();
+			int length = content.readableBytes();
+
+			// UDP is unreliable anyway, so drop datagrams rather than buffering without limit.
+			if (receivedSize.addAndGet(length) > Config.APIs.Socket.receiveHighWater) {
+				receivedSize.addAndGet(-length);
+				return;
+			}
+
+			byte[] datagram = new byte[length];
+			content.readBytes(datagram);
+			received.add(datagram);
+
+			DatagramConnection.this.onMessage();
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+			// As the channel isn't connected, errors only affect a single datagram, so leave the socket open.
+			String message = cause.getMessage();
+			DatagramConnection.this.onError(message == null || message.isEmpty() ? "Unknown socket error" : message);
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package org.squiddev.cctweaks.lua.lib.socket;
+
+import dan200.computercraft.ComputerCraft;
+import dan200.computercraft.api.lua.ILuaContext;
+import dan200.computercraft.api.lua.LuaException;
+import dan200.computercraft.api.peripheral.IComputerAccess;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.ssl.SslContext;
+import org.squiddev.cctweaks.api.lua.*;
+import org.squiddev.cctweaks.lua.Config;
+import org.squiddev.cctweaks.lua.lib.LuaHelpers;
+
+import javax.annotation.Nonnull;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.squiddev.cctweaks.lua.lib.ArgumentHelper.getString;
+import static org.squiddev.cctweaks.lua.lib.ArgumentHelper.optBinary;
+
+/**
+ * An HTTP client which keeps connections to each host alive and shares them between computers.
+ *
+ * Requests run on the socket event loop rather than a thread each. {@code request} yields until the response's
+ * headers have been received, and the body can then be streamed with {@code read} or read in one go with
+ * {@code readAll}.
+ *
+ * @see HttpPool
+ */
+public class HttpClientAPI implements ILuaAPI, ILuaAPIFactory, IMethodDescriptor, IBinaryHandler {
+	protected final Set<HttpExchange> responses = Collections.newSetFromMap(new ConcurrentHashMap<HttpExchange, Boolean>());
+	private final IComputerAccess computer;
+	private int id = 0;
+
+	public HttpClientAPI() {
+		this(null);
+	}
+
+	private HttpClientAPI(IComputerAccess computer) {
+		this.computer = computer;
+	}
+
+	@Override
+	public ILuaAPI create(@Nonnull IExtendedComputerAccess computer) {
+		return Config.APIs.Http.enabled ? new HttpClientAPI(computer) : null;
+	}
+
+	@Nonnull
+	@Override
+	public String[] getNames() {
+		return new String[]{"httpclient"};
+	}
+
+	@Override
+	public void startup() {
+		id = 0;
+	}
+
+	@Override
+	public void shutdown() {
+		for (HttpExchange response : responses.toArray(new HttpExchange[0])) {
+			response.close();
+		}
+
+		responses.clear();
+	}
+
+	@Override
+	public void advance(double timestep) {
+	}
+
+	@Nonnull
+	@Override
+	public String[] getMethodNames() {
+		return new String[]{"request"};
+	}
+
+	@Override
+	public Object[] callMethod(@Nonnull ILuaContext context, int method, @Nonnull Object[] arguments) throws LuaException, InterruptedException {
+		switch (method) {
+			case 0: { // request
+				URI uri = checkUri(getString(arguments, 0));
+				ByteBuffer body = optBinary(arguments, 1, null);
+
+				Map<?, ?> headers = null;
+				if (arguments.length >= 3 && arguments[2] != null) {
+					if (!(arguments[2] instanceof Map)) throw new LuaException("Expected table");
+					headers = (Map<?, ?>) arguments[2];
+				}
+
+				String methodName = arguments.length >= 4 && arguments[3] != null
+					? getString(arguments, 3).toUpperCase(Locale.ENGLISH)
+					: body == null ? "GET" : "POST";
+
+				if (responses.size() >= Config.APIs.Http.maxRequests) throw new LuaException("Too many open requests");
+
+				if (!ComputerCraft.http_whitelist.matches(uri.getHost()) || ComputerCraft.http_blacklist.matches(uri.getHost())) {
+					throw new LuaException("Domain not permitted");
+				}
+
+				HttpMethod httpMethod;
+				FullHttpRequest request;
+				try {
+					httpMethod = HttpMethod.valueOf(methodName);
+					request = createRequest(uri, httpMethod, body, headers);
+				} catch (IllegalArgumentException e) {
+					throw LuaHelpers.rewriteException(e, "Invalid request");
+				}
+				boolean idempotent = httpMethod.equals(HttpMethod.GET) || httpMethod.equals(HttpMethod.HEAD);
+
+				final HttpExchange exchange = new HttpExchange(this, computer, id++, request, idempotent);
+				final boolean secure = uri.getScheme().equalsIgnoreCase("https");
+				final String host = uri.getHost();
+				final int port = uri.getPort() >= 0 ? uri.getPort() : secure ? 443 : 80;
+
+				// Added before submitting, as the request may fail before this thread gets any further.
+				responses.add(exchange);
+				try {
+					SocketPoller.submit(new Callable<Object>() {
+						@Override
+						public Object call() throws Exception {
+							try {
+								InetAddress resolved = AddressCache.resolve(host);
+								if (!AddressCache.isPermitted(resolved)) {
+									exchange.onFailure("Domain not permitted");
+									return null;
+								}
+
+								SslContext ssl = secure ? WebSocketConnection.getSslContext() : null;
+								HttpPool.get(host, port, ssl).submit(exchange, new InetSocketAddress(resolved, port));
+							} catch (UnknownHostException e) {
+								exchange.onFailure("Cannot resolve host " + e.getMessage());
+							} catch (Exception e) {
+								exchange.onFailure(e.getMessage() == null ? "Could not connect" : e.getMessage());
+							}
+							return null;
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					responses.remove(exchange);
+					exchange.request().release();
+					throw new LuaException("Too many requests");
+				}
+
+				return exchange.awaitHeaders(context);
+			}
+			default:
+				return null;
+		}
+	}
+
+	private static FullHttpRequest createRequest(URI uri, HttpMethod method, ByteBuffer body, Map<?, ?> headers) {
+		String path = uri.getRawPath();
+		if (path == null || path.isEmpty()) path = "/";
+		if (uri.getRawQuery() != null) path += "?" + uri.getRawQuery();
+
+		ByteBuf content = body == null ? Unpooled.EMPTY_BUFFER : Unpooled.wrappedBuffer(body);
+		FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, method, path, content);
+
+		HttpHeaders requestHeaders = request.headers();
+		requestHeaders.set(HttpHeaders.Names.HOST, uri.getPort() >= 0 ? uri.getHost() + ":" + uri.getPort() : uri.getHost());
+		if (body != null) HttpHeaders.setContentLength(request, content.readableBytes());
+
+		if (headers != null) {
+			for (Map.Entry<?, ?> header : headers.entrySet()) {
+				if (header.getKey() instanceof String && header.getValue() instanceof String) {
+					requestHeaders.set((String) header.getKey(), header.getValue());
+				}
+			}
+		}
+
+		return request;
+	}
+
+	private static URI checkUri(String address) throws LuaException {
+		URI uri;
+		try {
+			uri = new URI(address);
+		} catch (URISyntaxException e) {
+			throw new LuaException("URL malformed");
+		}
+
+		String scheme = uri.getScheme();
+		if (scheme == null || (!scheme.equalsIgnoreCase("http") && !scheme.equalsIgnoreCase("https"))) {
+			throw new LuaException("URL not http");
+		}
+		if (uri.getHost() == null) throw new LuaException("URL malformed");
+
+		return uri;
+	}
+
+	@Override
+	public boolean willYield(int method) {
+		return method == 0;
+	}
+
+	@Override
+	public boolean isBinary(int method) {
+		return method == 0;
+	}
+}
@@ -0,0 +1,312 @@
+package org.squiddev.cctweaks.lua.lib.socket;
+
+import dan200.computercraft.api.lua.ILuaContext;
+import dan200.computercraft.api.lua.ILuaObject;
+import dan200.computercraft.api.lua.LuaException;
+import dan200.computercraft.api.peripheral.IComputerAccess;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import org.squiddev.cctweaks.api.lua.ILuaEnvironment;
+import org.squiddev.cctweaks.api.lua.IMethodDescriptor;
+import org.squiddev.cctweaks.lua.Config;
+import org.squiddev.cctweaks.lua.lib.DelayedTasks;
+import org.squiddev.cctweaks.lua.lib.TaskCompletion;
+
+import javax.annotation.Nonnull;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A single request made by {@link HttpClientAPI}, and the handle the computer reads its response from.
+ *
+ * The response body is streamed into a {@link ReceiveBuffer}. If the computer falls behind then the connection is
+ * paused, as with a TCP socket, and taken out of its pool until the response is finished. A {@code httpclient_data}
+ * event is queued when more of the body can be read.
+ */
+public class HttpExchange implements ILuaObject, IMethodDescriptor {
+	public static final String DATA_EVENT = "httpclient_data";
+
+	private final HttpClientAPI owner;
+	private final IComputerAccess computer;
+	private final int id;
+
+	private final FullHttpRequest request;
+	private final boolean idempotent;
+
+	/**
+	 * Completed once the response's headers have been received.
+	 */
+	private final TaskCompletion headers = new TaskCompletion(DelayedTasks.getNextId(), ILuaEnvironment.EVENT_NAME);
+
+	/**
+	 * Completed once the whole response has been received.
+	 */
+	private final TaskCompletion finished = new TaskCompletion(DelayedTasks.getNextId(), ILuaEnvironment.EVENT_NAME);
+
+	/**
+	 * Whether anyone is waiting on {@link #finished}, and so an event should be queued when it completes.
+	 */
+	private volatile boolean awaitingFinish = false;
+
+	private final ReceiveBuffer body = new ReceiveBuffer();
+	private final AtomicBoolean dataQueued = new AtomicBoolean(false);
+
+	private volatile HttpResponse response;
+	private volatile Channel channel;
+	private volatile boolean draining = false;
+	private volatile boolean closed = false;
+	private boolean retried = false;
+	private int received = 0;
+
+	public HttpExchange(HttpClientAPI owner, IComputerAccess computer, int id, FullHttpRequest request, boolean idempotent) {
+		this.owner = owner;
+		this.computer = computer;
+		this.id = id;
+		this.request = request;
+		this.idempotent = idempotent;
+	}
+
+	public FullHttpRequest request() {
+		return request;
+	}
+
+	/**
+	 * Get a copy of the request to write to a connection. The original is kept until this exchange finishes, so the
+	 * request can be sent again if the connection fails.
+	 *
+	 * @return A retained copy of the request. Writing it releases it.
+	 */
+	FullHttpRequest newRequest() {
+		return ((FullHttpRequest) request.duplicate()).retain();
+	}
+
+	/**
+	 * Whether this request may be pipelined behind others on the same connection.
+	 *
+	 * @return If this request is idempotent.
+	 */
+	public boolean isIdempotent() {
+		return idempotent;
+	}
+
+	/**
+	 * Mark this request as being sent again after its connection failed. Only idempotent requests which haven't
+	 * received a response are retried, and only once, so a server which keeps dropping the request doesn't hold it
+	 * forever. This must be called with the pool's lock held.
+	 *
+	 * @return If this request should be retried.
+	 */
+	boolean retry() {
+		if (!idempotent || response != null || retried) return false;
+
+		retried = true;
+		return true;
+	}
+
+	/**
+	 * Wait for the response's headers.
+	 *
+	 * If the computer stops waiting for any other reason, such as being terminated, the request is abandoned.
+	 *
+	 * @param context The context to wait within
+	 * @return This exchange once the headers have been received, or {@code nil} and an error if the request failed.
+	 * @throws LuaException If the computer was terminated.
+	 */
+	public Object[] awaitHeaders(ILuaContext context) throws LuaException, InterruptedException {
+		try {
+			return headers.await(context);
+		} catch (LuaException e) {
+			if (headers.isDone()) {
+				try {
+					headers.getResult();
+				} catch (LuaException failure) {
+					return new Object[]{null, failure.getMessage()};
+				}
+			}
+
+			close();
+			throw e;
+		} catch (InterruptedException e) {
+			close();
+			throw e;
+		}
+	}
+
+	//region Called from the event loop
+	void onHeaders(Channel channel, HttpResponse response) {
+		this.channel = channel;
+		this.response = response;
+
+		headers.succeed(new Object[]{this});
+		computer.queueEvent(headers.getEvent(), new Object[]{headers.getId()});
+
+		// The computer stopped waiting before the response arrived, so don't download the rest of it.
+		if (closed) channel.close();
+	}
+
+	/**
+	 * Add part of the body.
+	 *
+	 * @param content The content to add. This takes ownership of the buffer.
+	 * @return Whether the connection should continue reading.
+	 */
+	boolean onContent(ByteBuf content) {
+		if (closed) {
+			content.release();
+			return true;
+		}
+
+		received += content.readableBytes();
+		if (draining && received > Config.APIs.Http.maxResponseSize) {
+			content.release();
+			onFailure("Response is too large");
+			channel.close();
+			return true;
+		}
+
+		boolean readable = content.isReadable();
+		boolean keepReading = body.add(content, draining ? Integer.MAX_VALUE : Config.APIs.Socket.receiveHighWater);
+		if (readable) onData();
+		return keepReading;
+	}
+
+	void onComplete() {
+		if (finished.isDone()) return;
+
+		finished.succeed(null);
+		finish();
+	}
+
+	void onFailure(String message) {
+		if (!headers.isDone()) {
+			headers.fail(message);
+			computer.queueEvent(headers.getEvent(), new Object[]{headers.getId()});
+		}
+
+		if (finished.isDone()) return;
+
+		finished.fail(message);
+		owner.responses.remove(this);
+		finish();
+	}
+
+	private void finish() {
+		request.release();
+
+		// Let the computer know the body has ended, even if there is nothing left to read.
+		onData();
+		if (awaitingFinish) computer.queueEvent(finished.getEvent(), new Object[]{finished.getId()});
+	}
+
+	private void onData() {
+		if (!closed && dataQueued.compareAndSet(false, true)) computer.queueEvent(DATA_EVENT, new Object[]{id});
+	}
+	//endregion
+
+	/**
+	 * Stop reading this response. If the body hasn't been fully received then its connection is closed, as nothing
+	 * else can be read from it until the rest of the body has been skipped. Requests pipelined behind this one are sent
+	 * again or failed.
+	 */
+	public void close() {
+		closed = true;
+		owner.responses.remove(this);
+		body.clear();
+
+		Channel channel = this.channel;
+		if (channel != null && !finished.isDone()) channel.close();
+	}
+
+	private void resume(boolean force) {
+		Channel channel = this.channel;
+		if (channel == null) return;
+
+		int lowWater = Math.max(0, Math.min(Config.APIs.Socket.receiveLowWater, Config.APIs.Socket.receiveHighWater - 1));
+		if (body.resume(force ? Integer.MAX_VALUE : lowWater)) channel.config().setAutoRead(true);
+	}
+
+	private byte[] read(int count) throws LuaException {
+		dataQueued.set(false);
+
+		// Check this before reading, as the rest of the body may arrive between reading and checking.
+		boolean done = finished.isDone();
+		byte[] result = body.read(count);
+		resume(false);
+
+		if (done && result.length == 0 && body.readableBytes() == 0) {
+			owner.responses.remove(this);
+
+			// Throws if the response failed.
+			finished.getResult();
+			return null;
+		}
+
+		if (body.readableBytes() > 0) onData();
+		return result;
+	}
+
+	private byte[] readAll(ILuaContext context) throws LuaException, InterruptedException {
+		draining = true;
+		awaitingFinish = true;
+		resume(true);
+
+		finished.await(context);
+		owner.responses.remove(this);
+
+		dataQueued.set(false);
+		return body.read(Integer.MAX_VALUE);
+	}
+
+	@Nonnull
+	@Override
+	public String[] getMethodNames() {
+		return new String[]{"getResponseCode", "getResponseHeaders", "read", "readAll", "close", "id"};
+	}
+
+	@Override
+	public Object[] callMethod(@Nonnull ILuaContext context, int method, @Nonnull Object[] arguments) throws LuaException, InterruptedException {
+		switch (method) {
+			case 0: // getResponseCode
+				return new Object[]{response.getStatus().code()};
+			case 1: { // getResponseHeaders
+				Map<String, String> result = new HashMap<String, String>();
+				for (Map.Entry<String, String> header : response.headers()) {
+					result.put(header.getKey(), header.getValue());
+				}
+				return new Object[]{result};
+			}
+			case 2: { // read
+				if (closed) throw new LuaException("Response is closed");
+
+				int count = Config.APIs.Socket.maxRead;
+				if (arguments.length >= 1 && arguments[0] != null) {
+					if (arguments[0] instanceof Number) {
+						count = Math.max(0, Math.min(count, ((Number) arguments[0]).intValue()));
+					} else {
+						throw new LuaException("Expected number");
+					}
+				}
+
+				return new Object[]{read(count)};
+			}
+			case 3: // readAll
+				if (closed) throw new LuaException("Response is closed");
+				return new Object[]{readAll(context)};
+			case 4: // close
+				close();
+				return null;
+			case 5: // id
+				return new Object[]{id};
+			default:
+				return null;
+		}
+	}
+
+	@Override
+	public boolean willYield(int method) {
+		return method == 3;
+	}
+}
@@ -0,0 +1,364 @@
+package org.squiddev.cctweaks.lua.lib.socket;
+
+import io.netty.channel.*;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.ReferenceCountUtil;
+import org.squiddev.cctweaks.lua.Config;
+
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pool of keep-alive connections to a single host, shared between all computers.
+ *
+ * Idempotent requests may be pipelined onto a connection which is already busy, up to
+ * {@link Config.APIs.Http#pipelineDepth} requests at once. Other requests wait for a connection to themselves. Once
+ * {@link Config.APIs.Http#maxConnectionsPerHost} connections are open, requests are queued until one is free.
+ *
+ * A connection whose response is paused, because the computer hasn't read it yet, is taken out of the pool so other
+ * requests aren't stuck behind it. If a connection closes before a request's response arrives then idempotent requests
+ * are sent again. Pools are removed once they have no connections and nothing waiting.
+ */
+final class HttpPool {
+	private static final Map<String, HttpPool> pools = new HashMap<String, HttpPool>();
+
+	private final String key;
+	private final String host;
+	private final int port;
+	private final SslContext ssl;
+
+	private final List<Connection> connections = new ArrayList<Connection>();
+	private final Deque<Pending> waiting = new ArrayDeque<Pending>();
+
+	/**
+	 * Set once this pool has been removed from {@link #pools}. Requests are then sent to its replacement instead.
+	 */
+	private boolean removed = false;
+
+	private HttpPool(String key, String host, int port, SslContext ssl) {
+		this.key = key;
+		this.host = host;
+		this.port = port;
+		this.ssl = ssl;
+	}
+
+	/**
+	 * Get the pool for a host.
+	 *
+	 * @param host The host to connect to
+	 * @param port The port to connect to
+	 * @param ssl  The SSL context to use, or {@code null} for an insecure connection
+	 * @return The pool for this host.
+	 */
+	public static HttpPool get(String host, int port, SslContext ssl) {
+		String key = (ssl == null ? "http://" : "https://") + host + ":" + port;
+		synchronized (pools) {
+			HttpPool pool = pools.get(key);
+			if (pool == null) pools.put(key, pool = new HttpPool(key, host, port, ssl));
+			return pool;
+		}
+	}
+
+	/**
+	 * Send a request on the least busy connection which can take it, opening a new connection or waiting for one to
+	 * become free if needed.
+	 *
+	 * @param exchange The request to send
+	 * @param address  The address to connect to, if a new connection is needed
+	 */
+	public void submit(HttpExchange exchange, InetSocketAddress address) {
+		synchronized (this) {
+			if (!removed) {
+				assign(exchange, address);
+				return;
+			}
+		}
+
+		// This pool was removed after it was fetched, so use the one which replaced it.
+		get(host, port, ssl).submit(exchange, address);
+	}
+
+	/**
+	 * Send a request on a connection, or queue it. This must be called with the pool's lock held.
+	 */
+	private void assign(HttpExchange exchange, InetSocketAddress address) {
+		Connection best = null;
+		for (Connection connection : connections) {
+			if (connection.canAccept(exchange) && (best == null || connection.inflight.size() < best.inflight.size())) {
+				best = connection;
+			}
+		}
+
+		if ((best == null || !best.inflight.isEmpty()) && connections.size() < Config.APIs.Http.maxConnectionsPerHost) {
+			Connection connection = new Connection(address);
+			connections.add(connection);
+			connection.send(exchange);
+			connection.start();
+		} else if (best == null) {
+			waiting.add(new Pending(exchange, address));
+		} else {
+			best.send(exchange);
+		}
+	}
+
+	/**
+	 * Send as many waiting requests as possible, removing this pool if it is no longer used.
+	 */
+	private synchronized void dispatch() {
+		int size = waiting.size();
+		for (int i = 0; i < size; i++) {
+			Pending pending = waiting.poll();
+			if (pending == null) break;
+
+			assign(pending.exchange, pending.address);
+		}
+
+		if (!removed && connections.isEmpty() && waiting.isEmpty()) {
+			removed = true;
+			synchronized (pools) {
+				if (pools.get(key) == this) pools.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Queue requests to be sent before any others which are waiting, keeping their order. This must be called with
+	 * the pool's lock held.
+	 */
+	private void requeue(List<HttpExchange> exchanges, InetSocketAddress address) {
+		for (int i = exchanges.size() - 1; i >= 0; i--) {
+			waiting.addFirst(new Pending(exchanges.get(i), address));
+		}
+	}
+
+	private final class Connection extends ChannelInboundHandlerAdapter {
+		private final InetSocketAddress address;
+		private final ChannelFuture connectFuture;
+		private final Channel channel;
+
+		/**
+		 * Requests which have been sent, or will be sent once connected, in the order their responses will arrive.
+		 */
+		private final Queue<HttpExchange> inflight = new ArrayDeque<HttpExchange>();
+
+		private boolean active = false;
+		private boolean closing = false;
+
+		private Connection(InetSocketAddress address) {
+			this.address = address;
+			connectFuture = SocketPoller.bootstrap()
+				.handler(new ChannelInitializer<SocketChannel>() {
+					@Override
+					protected void initChannel(SocketChannel ch) throws Exception {
+						ChannelPipeline p = ch.pipeline();
+						if (ssl != null) p.addLast(ssl.newHandler(ch.alloc(), host, port));
+						p.addLast(
+							new IdleStateHandler(0, 0, Config.APIs.Http.idleTimeout, TimeUnit.SECONDS),
+							new HttpClientCodec(),
+							Connection.this
+						);
+					}
+				})
+				.connect(address);
+			channel = connectFuture.channel();
+		}
+
+		/**
+		 * Fail this connection's requests if it cannot connect. This must be called once the connection has been
+		 * added to the pool, as the listener may be run immediately.
+		 */
+		private void start() {
+			connectFuture.addListener(new ChannelFutureListener() {
+				@Override
+				public void operationComplete(ChannelFuture future) throws Exception {
+					if (!future.isSuccess()) {
+						Throwable cause = future.cause();
+						fail(cause == null || cause.getMessage() == null ? "Could not connect" : cause.getMessage());
+					}
+				}
+			});
+		}
+
+		/**
+		 * Whether this connection can take a request. This must be called with the pool's lock held.
+		 */
+		private boolean canAccept(HttpExchange exchange) {
+			if (closing) return false;
+			if (inflight.isEmpty()) return true;
+			if (!exchange.isIdempotent() || inflight.size() >= Config.APIs.Http.pipelineDepth) return false;
+
+			for (HttpExchange other : inflight) {
+				if (!other.isIdempotent()) return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Queue a request on this connection. This must be called with the pool's lock held.
+		 */
+		private void send(HttpExchange exchange) {
+			inflight.add(exchange);
+			if (active) channel.writeAndFlush(exchange.newRequest());
+		}
+
+		@Override
+		public void channelActive(ChannelHandlerContext ctx) throws Exception {
+			synchronized (HttpPool.this) {
+				active = true;
+				for (HttpExchange exchange : inflight) ctx.write(exchange.newRequest());
+			}
+			ctx.flush();
+
+			super.channelActive(ctx);
+		}
+
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+			HttpExchange exchange;
+			synchronized (HttpPool.this) {
+				exchange = inflight.peek();
+			}
+
+			if (exchange == null) {
+				// The server sent a response we didn't ask for, so we can't trust anything else it sends.
+				ReferenceCountUtil.release(msg);
+				ctx.close();
+				return;
+			}
+
+			if (msg instanceof HttpResponse) {
+				HttpResponse response = (HttpResponse) msg;
+				if (!HttpHeaders.isKeepAlive(response)) {
+					synchronized (HttpPool.this) {
+						closing = true;
+					}
+				}
+
+				exchange.onHeaders(ctx.channel(), response);
+			}
+
+			if (msg instanceof HttpContent) {
+				boolean keepReading = exchange.onContent(((HttpContent) msg).content());
+
+				if (!(msg instanceof LastHttpContent)) {
+					if (!keepReading) pause(ctx);
+				} else {
+					exchange.onComplete();
+
+					boolean close;
+					synchronized (HttpPool.this) {
+						inflight.remove(exchange);
+						close = closing && inflight.isEmpty();
+					}
+
+					if (close) {
+						ctx.close();
+					} else {
+						dispatch();
+					}
+				}
+			}
+		}
+
+		/**
+		 * Stop reading until the computer catches up with the current response.
+		 *
+		 * This may take a while, so the connection is taken out of the pool and closed once the response is finished.
+		 * Requests pipelined behind the current one are sent on another connection.
+		 */
+		private void pause(ChannelHandlerContext ctx) {
+			synchronized (HttpPool.this) {
+				closing = true;
+				connections.remove(this);
+
+				HttpExchange current = inflight.remove();
+				List<HttpExchange> moved = new ArrayList<HttpExchange>(inflight);
+				inflight.clear();
+				inflight.add(current);
+
+				requeue(moved, address);
+			}
+
+			ctx.channel().config().setAutoRead(false);
+			dispatch();
+		}
+
+		@Override
+		public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+			fail("Connection closed");
+			super.channelInactive(ctx);
+		}
+
+		@Override
+		public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+			if (evt instanceof IdleStateEvent) {
+				boolean idle;
+				synchronized (HttpPool.this) {
+					idle = inflight.isEmpty();
+					if (idle) closing = true;
+				}
+
+				if (idle) ctx.close();
+			} else {
+				super.userEventTriggered(ctx, evt);
+			}
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+			String message = cause.getMessage();
+			fail(message == null || message.isEmpty() ? "Unknown socket error" : message);
+			ctx.close();
+		}
+
+		/**
+		 * Remove this connection from the pool and fail its requests.
+		 *
+		 * If the connection was open then requests which can be retried are sent again, as the server may just have
+		 * closed a keep-alive connection before reading them. Requests which couldn't connect are not retried.
+		 */
+		private void fail(String message) {
+			List<HttpExchange> failed = new ArrayList<HttpExchange>();
+			synchronized (HttpPool.this) {
+				closing = true;
+				connections.remove(this);
+
+				List<HttpExchange> retried = new ArrayList<HttpExchange>();
+				for (HttpExchange exchange : inflight) {
+					if (active && exchange.retry()) {
+						retried.add(exchange);
+					} else {
+						failed.add(exchange);
+					}
+				}
+				inflight.clear();
+
+				requeue(retried, address);
+			}
+
+			for (HttpExchange exchange : failed) exchange.onFailure(message);
+
+			// Requests waiting for a connection, or being retried, may now be able to open one.
+			dispatch();
+		}
+	}
+
+	private static final class Pending {
+		private final HttpExchange exchange;
+		private final InetSocketAddress address;
+
+		private Pending(HttpExchange exchange, InetSocketAddress address) {
+			this.exchange = exchange;
+			this.address = address;
+		}
+	}
+}
@@ -15,4 +15,9 @@ public interface ISocketListener {
 	 * Fired when the connection is finished/ready
 	 */
 	void onConnectFinished();
+
+	/**
+	 * Fired when everything queued to be sent has been sent, after a write was cut short
+	 */
+	void onDrain();
 }
@@ -0,0 +1,395 @@
+package org.squiddev.cctweaks.lua.lib.socket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.websocketx.*;
+import org.squiddev.cctweaks.lua.lib.ZlibPool;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * An implementation of the permessage-deflate websocket extension (RFC 7692).
+ *
+ * Netty does not support websocket extensions in the version we have to use, so we decompress incoming messages
+ * ourselves. Outgoing messages are compressed in one go by {@link #compress(ByteBuffer)}, with a new deflater for each
+ * message: this is why we always offer {@code client_no_context_takeover}.
+ *
+ * Netty's frame decoder validates text frames as UTF-8 before we can decompress them, so {@link Handshaker} replaces
+ * it with {@link FrameDecoder}.
+ */
+final class PerMessageDeflate extends MessageToMessageDecoder<WebSocketFrame> {
+	public static final String HEADER = "Sec-WebSocket-Extensions";
+	public static final String NAME = "permessage-deflate";
+	public static final String OFFER = NAME + "; client_no_context_takeover";
+
+	/**
+	 * The RSV1 bit, used to mark a message as compressed.
+	 */
+	public static final int RSV1 = 0x4;
+
+	private static final int BUFFER_SIZE = 8192;
+	private static final byte[] TAIL = new byte[]{0, 0, (byte) 0xff, (byte) 0xff};
+
+	private final int maxMessageSize;
+
+	private volatile boolean enabled = false;
+	private boolean noContextTakeover;
+
+	private Inflater inflater;
+	private boolean compressed;
+	private int size;
+
+	public PerMessageDeflate(int maxMessageSize) {
+		this.maxMessageSize = maxMessageSize;
+	}
+
+	/**
+	 * Enable this extension if the server accepted it.
+	 *
+	 * @param header The server's {@code Sec-WebSocket-Extensions} header. May be {@code null}.
+	 * @return Whether the extension was accepted.
+	 */
+	public boolean negotiate(String header) {
+		if (header == null) return false;
+
+		for (String extension : header.split(",")) {
+			String[] parts = extension.split(";");
+			if (!parts[0].trim().equalsIgnoreCase(NAME)) continue;
+
+			boolean noContextTakeover = false;
+			for (int i = 1; i < parts.length; i++) {
+				String parameter = parts[i].trim().toLowerCase(Locale.ENGLISH);
+				if (parameter.equals("server_no_context_takeover")) noContextTakeover = true;
+			}
+
+			this.noContextTakeover = noContextTakeover;
+			enabled = true;
+			return true;
+		}
+
+		return false;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	protected void decode(ChannelHandlerContext ctx, WebSocketFrame frame, List<Object> out) throws Exception {
+		if (frame instanceof TextWebSocketFrame || frame instanceof BinaryWebSocketFrame) {
+			compressed = (frame.rsv() & RSV1) != 0;
+			size = 0;
+		} else if (!(frame instanceof ContinuationWebSocketFrame)) {
+			out.add(frame.retain());
+			return;
+		}
+
+		if (!compressed) {
+			out.add(frame.retain());
+			return;
+		}
+
+		if (!enabled) throw new CorruptedFrameException("Received compressed frame without negotiating compression");
+
+		if (inflater == null) inflater = ZlibPool.inflater(true);
+
+		ByteBuf output = ctx.alloc().heapBuffer();
+		try {
+			ByteBuf content = frame.content();
+			byte[] input = new byte[content.readableBytes()];
+			content.getBytes(content.readerIndex(), input);
+			inflate(input, output);
+
+			if (frame.isFinalFragment()) {
+				inflate(TAIL, output);
+
+				// If the server finished the stream then it won't use the previous context either.
+				if (noContextTakeover || inflater.finished()) {
+					ZlibPool.release(inflater, true);
+					inflater = null;
+				}
+			}
+		} catch (Exception e) {
+			output.release();
+			throw e;
+		}
+
+		int rsv = frame.rsv() & ~RSV1;
+		boolean last = frame.isFinalFragment();
+		if (frame instanceof TextWebSocketFrame) {
+			out.add(new TextWebSocketFrame(last, rsv, output));
+		} else if (frame instanceof BinaryWebSocketFrame) {
+			out.add(new BinaryWebSocketFrame(last, rsv, output));
+		} else {
+			out.add(new ContinuationWebSocketFrame(last, rsv, output));
+		}
+	}
+
+	private void inflate(byte[] input, ByteBuf output) throws DataFormatException, TooLongFrameException {
+		if (inflater.finished()) {
+			// Anything after the final block must be the empty block we just appended.
+			return;
+		}
+
+		inflater.setInput(input);
+
+		byte[] buffer = new byte[BUFFER_SIZE];
+		while (!inflater.finished()) {
+			int read = inflater.inflate(buffer);
+			if (read == 0) {
+				if (inflater.needsDictionary()) throw new CorruptedFrameException("Inflating error: dictionary required");
+				if (inflater.needsInput()) break;
+			}
+
+			size += read;
+			if (size > maxMessageSize) throw new TooLongFrameException("Message is larger than " + maxMessageSize + " bytes");
+			output.writeBytes(buffer, 0, read);
+		}
+	}
+
+	@Override
+	public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+		super.handlerRemoved(ctx);
+		if (inflater != null) {
+			ZlibPool.release(inflater, true);
+			inflater = null;
+		}
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		super.channelInactive(ctx);
+		if (inflater != null) {
+			ZlibPool.release(inflater, true);
+			inflater = null;
+		}
+	}
+
+	/**
+	 * Compress a whole message.
+	 *
+	 * The message is compressed to a single stream with a final block, followed by an empty block. This is one of the
+	 * forms allowed by the RFC, and doesn't require a sync flush.
+	 *
+	 * @param contents The message to compress
+	 * @return The compressed message.
+	 */
+	public static ByteBuf compress(ByteBuffer contents) {
+		Deflater deflater = ZlibPool.deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			int length = contents.remaining();
+			if (contents.hasArray()) {
+				deflater.setInput(contents.array(), contents.arrayOffset() + contents.position(), length);
+			} else {
+				byte[] input = new byte[length];
+				contents.duplicate().get(input);
+				deflater.setInput(input);
+			}
+			deflater.finish();
+
+			ByteBuf output = Unpooled.buffer(Math.max(64, length / 2));
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while (!deflater.finished()) {
+				int written = deflater.deflate(buffer);
+				output.writeBytes(buffer, 0, written);
+			}
+
+			// The empty block, without its trailing 00 00 ff ff.
+			output.writeByte(0);
+			return output;
+		} finally {
+			ZlibPool.release(deflater, true);
+		}
+	}
+
+	/**
+	 * A handshaker which uses {@link FrameDecoder} rather than Netty's decoder.
+	 */
+	public static final class Handshaker extends WebSocketClientHandshaker13 {
+		private final PerMessageDeflate deflate;
+
+		public Handshaker(URI uri, HttpHeaders headers, int maxFramePayloadLength, PerMessageDeflate deflate) {
+			super(uri, WebSocketVersion.V13, null, true, headers, maxFramePayloadLength);
+			this.deflate = deflate;
+		}
+
+		@Override
+		protected WebSocketFrameDecoder newWebsocketDecoder() {
+			return new FrameDecoder(maxFramePayloadLength(), deflate);
+		}
+	}
+
+	/**
+	 * Decodes websocket frames without validating the contents of text frames, as they may be compressed.
+	 *
+	 * The rest of the protocol is checked as strictly as Netty's decoder does: any violation sends a 1002 close and
+	 * fails the connection.
+	 */
+	private static final class FrameDecoder extends ByteToMessageDecoder implements WebSocketFrameDecoder {
+		private static final int OPCODE_CONTINUATION = 0x0;
+		private static final int OPCODE_TEXT = 0x1;
+		private static final int OPCODE_BINARY = 0x2;
+		private static final int OPCODE_CLOSE = 0x8;
+		private static final int OPCODE_PING = 0x9;
+		private static final int OPCODE_PONG = 0xA;
+
+		/**
+		 * The largest payload a control frame may have.
+		 */
+		private static final int MAX_CONTROL_PAYLOAD = 125;
+
+		/**
+		 * The close code for a protocol error.
+		 */
+		private static final int PROTOCOL_ERROR = 1002;
+
+		private static final int RSV2 = 0x2;
+		private static final int RSV3 = 0x1;
+
+		private final int maxFramePayloadLength;
+		private final PerMessageDeflate deflate;
+
+		private boolean closed = false;
+
+		/**
+		 * Whether we are part way through a fragmented message, and so expect continuation frames.
+		 */
+		private boolean fragmented = false;
+
+		private FrameDecoder(int maxFramePayloadLength, PerMessageDeflate deflate) {
+			this.maxFramePayloadLength = maxFramePayloadLength;
+			this.deflate = deflate;
+		}
+
+		@Override
+		protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+			if (closed) {
+				// Discard anything after the close frame
+				in.skipBytes(in.readableBytes());
+				return;
+			}
+
+			int start = in.readerIndex();
+			int readable = in.readableBytes();
+			if (readable < 2) return;
+
+			int first = in.getUnsignedByte(start);
+			int second = in.getUnsignedByte(start + 1);
+
+			boolean last = (first & 0x80) != 0;
+			int rsv = (first & 0x70) >> 4;
+			int opcode = first & 0x0F;
+			boolean masked = (second & 0x80) != 0;
+			boolean control = (opcode & 0x8) != 0;
+
+			if (masked) protocolViolation(ctx, in, "Received a masked frame from the server");
+			if ((rsv & (RSV2 | RSV3)) != 0) protocolViolation(ctx, in, "Received a frame with reserved bits set");
+
+			if ((rsv & RSV1) != 0 && ((opcode != OPCODE_TEXT && opcode != OPCODE_BINARY) || !deflate.isEnabled())) {
+				// Only the first frame of a compressed message may have RSV1 set.
+				protocolViolation(ctx, in, "Received an unexpected compressed frame");
+			}
+
+			if (control) {
+				if (opcode != OPCODE_CLOSE && opcode != OPCODE_PING && opcode != OPCODE_PONG) {
+					protocolViolation(ctx, in, "Unknown opcode " + opcode);
+				}
+				if (!last) protocolViolation(ctx, in, "Received a fragmented control frame");
+				if ((second & 0x7F) > MAX_CONTROL_PAYLOAD) protocolViolation(ctx, in, "Control frame is too large");
+				if (opcode == OPCODE_CLOSE && (second & 0x7F) == 1) protocolViolation(ctx, in, "Invalid close frame");
+			} else {
+				if (opcode != OPCODE_CONTINUATION && opcode != OPCODE_TEXT && opcode != OPCODE_BINARY) {
+					protocolViolation(ctx, in, "Unknown opcode " + opcode);
+				}
+				if (opcode == OPCODE_CONTINUATION && !fragmented) {
+					protocolViolation(ctx, in, "Received a continuation frame without a message to continue");
+				}
+				if (opcode != OPCODE_CONTINUATION && fragmented) {
+					protocolViolation(ctx, in, "Received a new message before the previous one finished");
+				}
+			}
+
+			long length = second & 0x7F;
+			int header = 2;
+			if (length == 126) {
+				if (readable < 4) return;
+				length = in.getUnsignedShort(start + 2);
+				header = 4;
+			} else if (length == 127) {
+				if (readable < 10) return;
+				length = in.getLong(start + 2);
+				header = 10;
+			}
+
+			if (length < 0 || length > maxFramePayloadLength) {
+				throw new TooLongFrameException("Frame is larger than " + maxFramePayloadLength + " bytes");
+			}
+
+			if (readable < header + length) return;
+
+			ByteBuf payload = in.slice(start + header, (int) length).retain();
+			in.readerIndex(start + header + (int) length);
+
+			if (!control) fragmented = !last;
+
+			switch (opcode) {
+				case OPCODE_CONTINUATION:
+					out.add(new ContinuationWebSocketFrame(last, rsv, payload));
+					break;
+				case OPCODE_TEXT:
+					out.add(new TextWebSocketFrame(last, rsv, payload));
+					break;
+				case OPCODE_BINARY:
+					out.add(new BinaryWebSocketFrame(last, rsv, payload));
+					break;
+				case OPCODE_CLOSE:
+					closed = true;
+					out.add(new CloseWebSocketFrame(last, rsv, payload));
+					break;
+				case OPCODE_PING:
+					out.add(new PingWebSocketFrame(last, rsv, payload));
+					break;
+				case OPCODE_PONG:
+					out.add(new PongWebSocketFrame(last, rsv, payload));
+					break;
+				default:
+					// Unknown opcodes are rejected above.
+					payload.release();
+					break;
+			}
+		}
+
+		/**
+		 * Fail the connection, telling the server why if we can.
+		 *
+		 * @param ctx    The current channel context
+		 * @param in     The buffer we are decoding
+		 * @param reason The reason the frame was rejected
+		 * @throws CorruptedFrameException Always.
+		 */
+		private void protocolViolation(ChannelHandlerContext ctx, ByteBuf in, String reason) throws CorruptedFrameException {
+			closed = true;
+			in.skipBytes(in.readableBytes());
+
+			// Write from the start of the pipeline, as the websocket encoder comes after this decoder.
+			if (ctx.channel().isActive()) {
+				ctx.channel().writeAndFlush(new CloseWebSocketFrame(PROTOCOL_ERROR, reason)).addListener(ChannelFutureListener.CLOSE);
+			}
+
+			throw new CorruptedFrameException(reason);
+		}
+	}
+}
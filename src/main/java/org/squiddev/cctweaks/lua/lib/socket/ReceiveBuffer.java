@@ -0,0 +1,97 @@
+package org.squiddev.cctweaks.lua.lib.socket;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Holds data which has been received by a connection but not yet read by the computer.
+ *
+ * Buffers are added from the event loop as they are received, and a read drains as many of them as it needs, so one
+ * read may consume several chunks. Buffers are released as soon as they have been drained.
+ *
+ * The connection reads ahead until the high water mark is reached, and is then paused until enough has been read to
+ * drop below the low water mark.
+ */
+final class ReceiveBuffer {
+	private static final byte[] EMPTY = new byte[0];
+
+	private final Queue<ByteBuf> buffers = new ArrayDeque<ByteBuf>();
+	private int readable = 0;
+	private boolean paused = false;
+
+	/**
+	 * Add a buffer to the end of this one. This takes ownership of the buffer.
+	 *
+	 * @param buffer    The buffer to add
+	 * @param highWater The number of bytes at which reading should be paused
+	 * @return Whether the connection should continue reading.
+	 */
+	public synchronized boolean add(ByteBuf buffer, int highWater) {
+		if (buffer.isReadable()) {
+			buffers.add(buffer);
+			readable += buffer.readableBytes();
+		} else {
+			buffer.release();
+		}
+
+		if (readable >= highWater) paused = true;
+		return !paused;
+	}
+
+	/**
+	 * Resume a paused connection if enough data has been read.
+	 *
+	 * @param lowWater The number of bytes at or below which reading should resume.
+	 * @return Whether the connection was paused and should start reading again.
+	 */
+	public synchronized boolean resume(int lowWater) {
+		if (!paused || readable > lowWater) return false;
+
+		paused = false;
+		return true;
+	}
+
+	/**
+	 * Read up to {@code count} bytes.
+	 *
+	 * @param count The maximum number of bytes to read
+	 * @return The bytes which were read. This may be empty if no data is available.
+	 */
+	public synchronized byte[] read(int count) {
+		int length = Math.min(count, readable);
+		if (length <= 0) return EMPTY;
+
+		byte[] result = new byte[length];
+		int offset = 0;
+		while (offset < length) {
+			ByteBuf buffer = buffers.peek();
+
+			int toRead = Math.min(length - offset, buffer.readableBytes());
+			buffer.readBytes(result, offset, toRead);
+			offset += toRead;
+
+			if (!buffer.isReadable()) {
+				buffers.remove();
+				buffer.release();
+			}
+		}
+
+		readable -= length;
+		return result;
+	}
+
+	public synchronized int readableBytes() {
+		return readable;
+	}
+
+	/**
+	 * Release all buffers
+	 */
+	public synchronized void clear() {
+		ByteBuf buffer;
+		while ((buffer = buffers.poll()) != null) buffer.release();
+		readable = 0;
+	}
+}
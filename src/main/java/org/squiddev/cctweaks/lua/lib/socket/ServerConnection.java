@@ -0,0 +1,173 @@
+package org.squiddev.cctweaks.lua.lib.socket;
+
+import dan200.computercraft.api.lua.ILuaContext;
+import dan200.computercraft.api.lua.ILuaObject;
+import dan200.computercraft.api.lua.LuaException;
+import dan200.computercraft.api.peripheral.IComputerAccess;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.socket.SocketChannel;
+import org.squiddev.cctweaks.api.lua.ILuaEnvironment;
+import org.squiddev.cctweaks.api.lua.IMethodDescriptor;
+import org.squiddev.cctweaks.lua.Config;
+import org.squiddev.cctweaks.lua.lib.DelayedTasks;
+import org.squiddev.cctweaks.lua.lib.LuaHelpers;
+import org.squiddev.cctweaks.lua.lib.TaskCompletion;
+
+import javax.annotation.Nonnull;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A TCP server, listening on the loopback interface.
+ *
+ * Incoming connections are held until the computer accepts them, and a {@code socket_accept} event is queued for
+ * each one. We don't read from a connection until it has been accepted.
+ */
+public class ServerConnection implements ILuaObject, IMethodDescriptor {
+	private final SocketAPI owner;
+	private final IComputerAccess computer;
+	private final int id;
+
+	private final Queue<Channel> pending = new ConcurrentLinkedQueue<Channel>();
+
+	/**
+	 * The listening channel. This is set from the event loop once bound, and read from both the computer thread and
+	 * the event loop.
+	 */
+	private volatile Channel channel;
+
+	/**
+	 * Set once this server is closed, so a bind which completes afterwards closes its channel.
+	 */
+	private volatile boolean closed = false;
+
+	public ServerConnection(SocketAPI owner, IComputerAccess computer, int id) {
+		this.owner = owner;
+		this.computer = computer;
+		this.id = id;
+	}
+
+	/**
+	 * Start listening on a port, waiting until it has been bound.
+	 *
+	 * @param context The context to wait within
+	 * @param port    The port to listen on
+	 * @throws LuaException         If the port could not be bound or the computer was terminated.
+	 * @throws InterruptedException If the computer was shutdown
+	 */
+	public void bind(ILuaContext context, final int port) throws LuaException, InterruptedException {
+		InetAddress loopback;
+		try {
+			loopback = InetAddress.getByName(null);
+		} catch (UnknownHostException e) {
+			throw LuaHelpers.rewriteException(e, "Cannot listen on port " + port);
+		}
+
+		final TaskCompletion completion = new TaskCompletion(DelayedTasks.getNextId(), ILuaEnvironment.EVENT_NAME);
+		SocketPoller.serverBootstrap()
+			.childHandler(new ChannelInitializer<SocketChannel>() {
+				@Override
+				protected void initChannel(SocketChannel ch) throws Exception {
+					onAccept(ch);
+				}
+			})
+			.bind(new InetSocketAddress(loopback, port))
+			.addListener(new ChannelFutureListener() {
+				@Override
+				public void operationComplete(ChannelFuture future) throws Exception {
+					if (future.isSuccess()) {
+						channel = future.channel();
+
+						// We were closed while binding, so nobody else will close this.
+						if (closed) close(false);
+						completion.succeed(null);
+					} else {
+						completion.fail(LuaHelpers.rewriteException(future.cause(), "Cannot listen on port " + port).getMessage());
+					}
+
+					computer.queueEvent(completion.getEvent(), new Object[]{completion.getId()});
+				}
+			});
+
+		completion.await(context);
+	}
+
+	public void close(boolean remove) {
+		if (remove) owner.servers.remove(this);
+
+		closed = true;
+		Channel current = channel;
+		if (current != null) {
+			channel = null;
+			current.close();
+		}
+
+		Channel child;
+		while ((child = pending.poll()) != null) child.close();
+	}
+
+	private void onAccept(Channel child) {
+		// Refuse connections rather than letting them build up if the computer isn't accepting them.
+		if (channel == null || pending.size() >= Config.APIs.Socket.maxConnections) {
+			child.close();
+			return;
+		}
+
+		pending.add(child);
+		child.closeFuture().addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(ChannelFuture future) throws Exception {
+				// The other end gave up before we accepted it.
+				pending.remove(future.channel());
+			}
+		});
+		computer.queueEvent("socket_accept", new Object[]{id});
+	}
+
+	@Nonnull
+	@Override
+	public String[] getMethodNames() {
+		return new String[]{"accept", "close", "id"};
+	}
+
+	@Override
+	public Object[] callMethod(@Nonnull ILuaContext context, int method, @Nonnull Object[] arguments) throws LuaException, InterruptedException {
+		switch (method) {
+			case 0: { // accept
+				if (channel == null) throw new LuaException("Server is closed");
+
+				Channel child;
+				while ((child = pending.peek()) != null) {
+					if (child.isActive()) {
+						SocketConnection connection = owner.accept(child);
+						pending.remove(child);
+						return new Object[]{connection};
+					}
+
+					pending.remove(child);
+				}
+
+				return null;
+			}
+			case 1: // close
+				if (channel == null) throw new LuaException("Server already closed");
+				close(true);
+				return null;
+			case 2: // id
+				return new Object[]{id};
+			default:
+				return null;
+		}
+	}
+
+	@Override
+	public boolean willYield(int method) {
+		return false;
+	}
+}
@@ -5,6 +5,7 @@ import dan200.computercraft.ComputerCraft;
 import dan200.computercraft.api.lua.ILuaContext;
 import dan200.computercraft.api.lua.LuaException;
 import dan200.computercraft.api.peripheral.IComputerAccess;
+import io.netty.channel.Channel;
 import org.squiddev.cctweaks.api.lua.ILuaAPI;
 import org.squiddev.cctweaks.api.lua.IMethodDescriptor;
 import org.squiddev.cctweaks.lua.Config;
@@ -19,11 +20,13 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 
+import static org.squiddev.cctweaks.lua.lib.ArgumentHelper.getInt;
 import static org.squiddev.cctweaks.lua.lib.ArgumentHelper.getString;
 import static org.squiddev.cctweaks.lua.lib.ArgumentHelper.optInt;
 
 public class SocketAPI implements ILuaAPI, IMethodDescriptor {
 	protected final HashSet<AbstractConnection> connections = new HashSet<AbstractConnection>();
+	protected final HashSet<ServerConnection> servers = new HashSet<ServerConnection>();
 	private final IComputerAccess computer;
 	private int id = 0;
 
@@ -43,6 +46,12 @@ public class SocketAPI implements ILuaAPI, IMethodDescriptor {
 		}
 
 		connections.clear();
+
+		for (ServerConnection server : servers) {
+			server.close(false);
+		}
+
+		servers.clear();
 	}
 
 	@Override
@@ -52,7 +61,7 @@ public class SocketAPI implements ILuaAPI, IMethodDescriptor {
 	@Nonnull
 	@Override
 	public String[] getMethodNames() {
-		return new String[]{"connect", "websocket"};
+		return new String[]{"connect", "websocket", "udp", "listen"};
 	}
 
 	@Override
@@ -63,9 +72,12 @@ public class SocketAPI implements ILuaAPI, IMethodDescriptor {
 				int port = optInt(arguments, 1, -1);
 
 				if (!Config.APIs.Socket.tcp) throw new LuaException("TCP connections are disabled");
-				if (connections.size() >= Config.APIs.Socket.maxConnections) {
-					throw new LuaException("Too many open connections");
+
+				// Otherwise this would be parsed as a connection to the host "unix".
+				if (address.regionMatches(true, 0, "unix:", 0, 5)) {
+					throw new LuaException("Unix domain sockets are not supported");
 				}
+				checkConnections();
 
 				URI uri = checkUri(address, port);
 				if (!ComputerCraft.http_whitelist.matches(uri.getHost()) || ComputerCraft.http_blacklist.matches(uri.getHost())) {
@@ -102,10 +114,11 @@ public class SocketAPI implements ILuaAPI, IMethodDescriptor {
 					}
 				}
 
+				Object compress = settings.get("compress");
+				Object multiplex = settings.get("multiplex");
+
 				if (!Config.APIs.Socket.websocket) throw new LuaException("Websocket connections are disabled");
-				if (connections.size() >= Config.APIs.Socket.maxConnections) {
-					throw new LuaException("Too many open connections");
-				}
+				checkConnections();
 
 				URI uri = checkWebsocketUri((String) arguments[0]);
 				if (!ComputerCraft.http_whitelist.matches(uri.getHost()) || ComputerCraft.http_blacklist.matches(uri.getHost())) {
@@ -127,6 +140,8 @@ public class SocketAPI implements ILuaAPI, IMethodDescriptor {
 				try {
 					WebSocketConnection connection = new WebSocketConnection(this, computer, id++);
 					connection.setHeaders(headers);
+					connection.setCompress(compress instanceof Boolean && (Boolean) compress);
+					connection.setMultiplex(multiplex instanceof Boolean && (Boolean) multiplex);
 					connection.open(uri, port);
 					connections.add(connection);
 					return new Object[]{connection};
@@ -135,11 +150,88 @@ public class SocketAPI implements ILuaAPI, IMethodDescriptor {
 				}
 			}
 
+			case 2: {
+				String address = getString(arguments, 0);
+				int port = optInt(arguments, 1, -1);
+
+				if (!Config.APIs.Socket.udp) throw new LuaException("UDP sockets are disabled");
+				checkConnections();
+
+				URI uri = checkUri(address, port);
+				if (!ComputerCraft.http_whitelist.matches(uri.getHost()) || ComputerCraft.http_blacklist.matches(uri.getHost())) {
+					throw new LuaException("Domain not permitted");
+				}
+
+				try {
+					DatagramConnection connection = new DatagramConnection(this, computer, id++);
+					connection.open(uri, port);
+					connections.add(connection);
+					return new Object[]{connection};
+				} catch (IOException e) {
+					throw LuaHelpers.rewriteException(e, "Connection error");
+				}
+			}
+
+			case 3: {
+				int port = getInt(arguments, 0);
+
+				if (!Config.APIs.Socket.listen) throw new LuaException("Listening is disabled");
+				if (port < Config.APIs.Socket.listenPortMin || port > Config.APIs.Socket.listenPortMax) {
+					throw new LuaException("Port must be between " + Config.APIs.Socket.listenPortMin + " and " + Config.APIs.Socket.listenPortMax);
+				}
+				checkConnections();
+
+				// Add the server before binding so it counts towards the limit while we wait.
+				ServerConnection server = new ServerConnection(this, computer, id++);
+				servers.add(server);
+
+				boolean bound = false;
+				try {
+					server.bind(context, port);
+					bound = true;
+				} finally {
+					if (!bound) server.close(true);
+				}
+
+				return new Object[]{server};
+			}
+
 			default:
 				return null;
 		}
 	}
 
+	/**
+	 * Open a connection which was accepted by one of our servers.
+	 *
+	 * @param channel The accepted channel
+	 * @return The opened connection.
+	 * @throws LuaException If this computer has too many connections open.
+	 */
+	SocketConnection accept(Channel channel) throws LuaException {
+		checkConnections();
+
+		try {
+			SocketConnection connection = new SocketConnection(this, computer, id++);
+			connection.accept(channel);
+			connections.add(connection);
+			return connection;
+		} catch (IOException e) {
+			throw LuaHelpers.rewriteException(e, "Connection error");
+		}
+	}
+
+	/**
+	 * Check this computer can open another connection. Servers count towards the limit as well as connections.
+	 *
+	 * @throws LuaException If this computer has too many connections open.
+	 */
+	private void checkConnections() throws LuaException {
+		if (connections.size() + servers.size() >= Config.APIs.Socket.maxConnections) {
+			throw new LuaException("Too many open connections");
+		}
+	}
+
 	private static URI checkUri(String address, int port) throws LuaException {
 		try {
 			URI parsed = new URI(address);
@@ -196,6 +288,6 @@ public class SocketAPI implements ILuaAPI, IMethodDescriptor {
 
 	@Override
 	public boolean willYield(int method) {
-		return false;
+		return method == 3;
 	}
 }
@@ -2,6 +2,10 @@ package org.squiddev.cctweaks.lua.lib.socket;
 
 import dan200.computercraft.api.lua.LuaException;
 import dan200.computercraft.api.peripheral.IComputerAccess;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.socket.SocketChannel;
 import org.squiddev.cctweaks.lua.Config;
 import org.squiddev.cctweaks.lua.lib.LuaHelpers;
 
@@ -9,21 +13,124 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A raw TCP connection.
+ *
+ * Reads are not automatic: we read ahead into a {@link ReceiveBuffer} until it reaches
+ * {@link Config.APIs.Socket#receiveHighWater}, and then wait for Lua to consume it before asking Netty for more data.
+ *
+ * Writes are queued and flushed by the event loop, see {@link #scheduleFlush(Channel)}. At most
+ * {@link Config.APIs.Socket#sendBufferSize} bytes may be queued at once: if a write is cut short then a
+ * {@code socket_drain} event is queued once everything has been sent.
+ */
+public class SocketConnection extends AbstractConnection {
+	private final ReceiveBuffer received = new ReceiveBuffer();
+
+	private ChannelFuture channelFuture;
+
+	/**
+	 * The number of bytes which have been written but not yet sent.
+	 */
+	private final AtomicInteger pending = new AtomicInteger(0);
+
+	/**
+	 * Whether a write was cut short, and so a {@code socket_drain} event should be queued once everything is sent.
+	 */
+	private final AtomicBoolean drainWanted = new AtomicBoolean(false);
 
-public class SocketConnection extends AbstractSocketConnection {
 	public SocketConnection(SocketAPI owner, IComputerAccess computer, int id) throws IOException {
 		super(owner, computer, id);
 	}
 
 	@Override
-	protected int write(byte[] contents) throws LuaException, InterruptedException {
+	protected InetSocketAddress connect(URI uri, int port) throws Exception {
+		InetSocketAddress address = super.connect(uri, port);
+
+		channelFuture = SocketPoller.bootstrap()
+			.option(ChannelOption.AUTO_READ, false)
+			.handler(new ChannelInitializer<SocketChannel>() {
+				@Override
+				protected void initChannel(SocketChannel ch) throws Exception {
+					ch.pipeline().addLast(new ClientListener());
+				}
+			})
+			.connect(address);
+		channelFuture.addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(ChannelFuture future) throws Exception {
+				// Failures are reported when the connection is next used.
+				onConnectFinished();
+			}
+		});
+
+		return address;
+	}
+
+	/**
+	 * Use a connection accepted by a {@link ServerConnection}, and start reading from it.
+	 *
+	 * @param channel The accepted channel
+	 */
+	void accept(Channel channel) {
+		openAccepted();
+		channelFuture = channel.newSucceededFuture();
+		channel.pipeline().addLast(new ClientListener());
+		channel.read();
+	}
+
+	@Override
+	protected boolean checkConnected() throws LuaException, InterruptedException {
+		if (!super.checkConnected()) return false;
+
+		if (!channelFuture.isDone()) return false;
+		if (!channelFuture.isSuccess()) {
+			throw LuaHelpers.rewriteException(channelFuture.cause(), "Cannot open socket");
+		}
+
+		return true;
+	}
+
+	@Override
+	public void close(boolean remove) {
+		super.close(remove);
+
+		if (channelFuture != null) {
+			channelFuture.channel().close();
+			channelFuture = null;
+		}
+
+		received.clear();
+	}
+
+	@Override
+	protected int write(ByteBuffer contents) throws LuaException, InterruptedException {
 		if (checkConnected()) {
-			try {
-				return getChannel().write(ByteBuffer.wrap(contents));
-			} catch (IOException e) {
-				throw LuaHelpers.rewriteException(e, "Socket error");
+			int requested = contents.remaining();
+			final int length = Math.min(requested, Math.max(0, Config.APIs.Socket.sendBufferSize - pending.get()));
+			if (length < requested) drainWanted.set(true);
+			if (length == 0) {
+				// The queue may have emptied before we asked to be told about it.
+				if (pending.get() == 0 && drainWanted.compareAndSet(true, false)) onDrain();
+				return 0;
 			}
+
+			contents.limit(contents.position() + length);
+			pending.addAndGet(length);
+			Channel channel = channelFuture.channel();
+			channel.write(Unpooled.wrappedBuffer(contents)).addListener(new ChannelFutureListener() {
+				@Override
+				public void operationComplete(ChannelFuture future) throws Exception {
+					// Failed writes also count as sent: the connection will be closed anyway.
+					if (pending.addAndGet(-length) == 0 && future.isSuccess() && drainWanted.compareAndSet(true, false)) {
+						onDrain();
+					}
+				}
+			});
+			scheduleFlush(channel);
+			return length;
 		} else {
 			return 0;
 		}
@@ -34,36 +141,52 @@ public class SocketConnection extends AbstractSocketConnection {
 		count = Math.min(count, Config.APIs.Socket.maxRead);
 
 		if (checkConnected()) {
-			ByteBuffer buffer = ByteBuffer.allocate(count);
-			try {
-				int read = getChannel().read(buffer);
-				if (read == -1) return null;
-
-				// Re-enqueue the listener
-				addReadListener();
-				return Arrays.copyOf(buffer.array(), read);
-			} catch (IOException e) {
-				throw LuaHelpers.rewriteException(e, "Socket error");
-			}
+			Channel channel = channelFuture.channel();
+			if (received.readableBytes() == 0 && !channel.isActive()) return null;
+
+			byte[] result = received.read(count);
+
+			// Enough has been consumed, so start reading ahead again.
+			int lowWater = Math.max(0, Math.min(Config.APIs.Socket.receiveLowWater, Config.APIs.Socket.receiveHighWater - 1));
+			if (received.resume(lowWater)) channel.read();
+
+			return result;
 		} else {
 			return new byte[0];
 		}
 	}
 
 	@Override
-	protected InetSocketAddress connect(URI uri, int port) throws Exception {
-		InetSocketAddress address = super.connect(uri, port);
+	protected boolean hasUnread() {
+		return received.readableBytes() > 0;
+	}
 
-		SocketPoller.getConnect().add(getChannel(), new Runnable() {
-			@Override
-			public void run() {
-				try {
-					getChannel().finishConnect();
-				} catch (IOException ignored) {
-				}
-				onConnectFinished();
-			}
-		});
-		return address;
+	private class ClientListener extends ChannelInboundHandlerAdapter {
+		@Override
+		public void channelActive(ChannelHandlerContext ctx) {
+			ctx.read();
+		}
+
+		@Override
+		public void channelInactive(ChannelHandlerContext ctx) {
+			SocketConnection.this.onClosed();
+		}
+
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg) {
+			ByteBuf buffer = (ByteBuf) msg;
+			boolean readable = buffer.isReadable();
+
+			if (received.add(buffer, Config.APIs.Socket.receiveHighWater)) ctx.read();
+			if (readable) SocketConnection.this.onMessage();
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+			ctx.close();
+
+			String message = cause.getMessage();
+			SocketConnection.this.onError(message == null || message.isEmpty() ? "Unknown socket error" : message);
+		}
 	}
 }
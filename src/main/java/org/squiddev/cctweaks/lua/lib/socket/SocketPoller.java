@@ -1,114 +1,129 @@
 package org.squiddev.cctweaks.lua.lib.socket;
 
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.internal.PlatformDependent;
 import org.squiddev.cctweaks.lua.Config;
 import org.squiddev.cctweaks.lua.ThreadBuilder;
 import org.squiddev.cctweaks.lua.TweaksLogger;
 
-import java.io.IOException;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
-import java.nio.channels.SocketChannel;
-import java.util.concurrent.*;
-
-public class SocketPoller implements Runnable {
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The threads shared by all socket connections.
+ *
+ * Netty's native epoll transport is used when it is available and enabled in the config, otherwise we fall back to
+ * NIO.
+ */
+public final class SocketPoller {
 	private static final ExecutorService threads = ThreadBuilder.createThread("Socket", Config.APIs.Socket.threads, ThreadBuilder.LOW_PRIORITY);
-	private static final ThreadFactory pollerFactory = ThreadBuilder.getFactory("Socket Poller", ThreadBuilder.LOW_PRIORITY);
-	private static final EventLoopGroup group = new NioEventLoopGroup(Config.APIs.Socket.nettyThreads, ThreadBuilder.getFactory("Netty", ThreadBuilder.LOW_PRIORITY));
 
-	private static final Object lock = new Object();
-	private static SocketPoller read;
-	private static SocketPoller connect;
+	private static final boolean epoll = useEpoll();
+	private static final EventLoopGroup group = createGroup();
+	private static final Class<? extends SocketChannel> channel = epoll ? EpollSocketChannel.class : NioSocketChannel.class;
+	private static final Class<? extends ServerSocketChannel> serverChannel = epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+	private static final Class<? extends DatagramChannel> datagramChannel = epoll ? EpollDatagramChannel.class : NioDatagramChannel.class;
 
-	private final int flag;
-	private final ConcurrentLinkedQueue<SocketAction> channels = new ConcurrentLinkedQueue<SocketAction>();
-	private final Selector selector;
+	private SocketPoller() {
+		throw new IllegalStateException("Cannot instantiate singleton " + getClass().getName());
+	}
 
-	private static final class SocketAction {
-		final SocketChannel channel;
-		final Runnable runnable;
+	private static boolean useEpoll() {
+		if (!Config.APIs.Socket.nativeTransport) return false;
 
-		private SocketAction(SocketChannel channel, Runnable runnable) {
-			this.channel = channel;
-			this.runnable = runnable;
+		if (!Epoll.isAvailable()) {
+			Throwable cause = Epoll.unavailabilityCause();
+			TweaksLogger.debug("Native transport is not available, using NIO: " + (cause == null ? "unknown reason" : cause.toString()));
+			return false;
 		}
-	}
 
-	private SocketPoller(int flag) {
-		this.flag = flag;
-
-		Selector selector = null;
-		try {
-			selector = Selector.open();
-		} catch (IOException e) {
-			TweaksLogger.error("Cannot run SocketPoller: sockets will not work as expected", e);
+		// The native transport reads and writes through the address of direct buffers, which needs Unsafe.
+		if (!PlatformDependent.hasUnsafe()) {
+			TweaksLogger.debug("Native transport requires direct buffer access, using NIO");
+			return false;
 		}
-		this.selector = selector;
-		if (selector == null) return;
 
-		pollerFactory.newThread(this).start();
+		return true;
 	}
 
-	@Override
-	public void run() {
-		while (true) {
-			try {
-				// Add all new sockets
-				while (true) {
-					SocketAction action = channels.poll();
-					if (action == null) break;
-
-					SocketChannel channel = action.channel;
-					if (channel != null && channel.isOpen()) {
-						channel.register(selector, flag, action.runnable);
-					}
-				}
-
-				// Wait for something
-				selector.select();
-
-				// Queue which ones we've had a changed state
-				for (SelectionKey key : selector.selectedKeys()) {
-					if ((key.readyOps() & flag) != 0) {
-						key.cancel();
-						((Runnable) key.attachment()).run();
-					}
-				}
-			} catch (IOException e) {
-				TweaksLogger.error("Error in SocketPoller: running another iteration", e);
-			}
-		}
+	private static EventLoopGroup createGroup() {
+		int count = Config.APIs.Socket.nettyThreads;
+		ThreadFactory factory = ThreadBuilder.getFactory("Netty", ThreadBuilder.LOW_PRIORITY);
+		return epoll ? new EpollEventLoopGroup(count, factory) : new NioEventLoopGroup(count, factory);
 	}
 
-	public void add(SocketChannel channel, Runnable action) {
-		channels.offer(new SocketAction(channel, action));
-		if (selector != null) selector.wakeup();
+	public static <T> Future<T> submit(Callable<T> task) {
+		return threads.submit(task);
 	}
 
-	public static SocketPoller getRead() {
-		if (read == null) {
-			synchronized (lock) {
-				if (read == null) read = new SocketPoller(SelectionKey.OP_READ);
-			}
-		}
-		return read;
+	public static EventLoopGroup group() {
+		return group;
 	}
 
-	public static SocketPoller getConnect() {
-		if (connect == null) {
-			synchronized (lock) {
-				if (connect == null) connect = new SocketPoller(SelectionKey.OP_CONNECT);
-			}
-		}
-		return connect;
+	/**
+	 * Whether connections use Netty's native epoll transport rather than NIO.
+	 *
+	 * @return If the native transport is in use.
+	 */
+	public static boolean isNative() {
+		return epoll;
 	}
 
-	public static <T> Future<T> submit(Callable<T> task) {
-		return threads.submit(task);
+	/**
+	 * Create a bootstrap for a client connection. This uses the shared event loop group and a pooled allocator, so
+	 * receive buffers are reused rather than allocated for every read.
+	 *
+	 * @return The created bootstrap. The caller should set the handler.
+	 */
+	public static Bootstrap bootstrap() {
+		return new Bootstrap()
+			.group(group)
+			.channel(channel)
+			.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
 	}
 
-	public static EventLoopGroup group() {
-		return group;
+	/**
+	 * Create a bootstrap for a UDP socket, using the shared event loop group and a pooled allocator.
+	 *
+	 * @return The created bootstrap. The caller should set the handler.
+	 */
+	public static Bootstrap datagramBootstrap() {
+		return new Bootstrap()
+			.group(group)
+			.channel(datagramChannel)
+			.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+	}
+
+	/**
+	 * Create a bootstrap for a server. Accepted connections use the same event loop group and allocator as client
+	 * connections, and do not read until asked to.
+	 *
+	 * @return The created bootstrap. The caller should set the child handler.
+	 */
+	public static ServerBootstrap serverBootstrap() {
+		return new ServerBootstrap()
+			.group(group)
+			.channel(serverChannel)
+			.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+			.childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+			.childOption(ChannelOption.AUTO_READ, false);
 	}
 }
@@ -1,36 +1,89 @@
 package org.squiddev.cctweaks.lua.lib.socket;
 
+import com.google.common.collect.ObjectArrays;
+import dan200.computercraft.api.lua.ILuaContext;
 import dan200.computercraft.api.lua.LuaException;
 import dan200.computercraft.api.peripheral.IComputerAccess;
-import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.http.*;
 import io.netty.handler.codec.http.websocketx.*;
 import io.netty.handler.ssl.SslContext;
 import io.netty.util.CharsetUtil;
+import org.squiddev.cctweaks.lua.Config;
 import org.squiddev.cctweaks.lua.TweaksLogger;
 import org.squiddev.cctweaks.lua.lib.LuaHelpers;
 
+import javax.annotation.Nonnull;
+import javax.net.ssl.SSLException;
 import javax.net.ssl.TrustManagerFactory;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.security.KeyStore;
-import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.squiddev.cctweaks.lua.lib.ArgumentHelper.getBinary;
+import static org.squiddev.cctweaks.lua.lib.ArgumentHelper.optBoolean;
 
 public class WebSocketConnection extends AbstractConnection {
 	private static final Object lock = new Object();
-	private static TrustManagerFactory trustManager;
+	private static volatile TrustManagerFactory trustManager;
+
+	/**
+	 * Shared between every secure websocket and HTTP connection. This must be volatile for the double checked locking
+	 * in {@link #getSslContext()} to be safe.
+	 */
+	private static volatile SslContext sslContext;
+
+	/**
+	 * Number of TLS sessions to remember, so reconnecting to a server can resume its previous session.
+	 */
+	private static final long SESSION_CACHE_SIZE = 1024;
+
+	/**
+	 * Number of seconds a TLS session can be resumed for.
+	 */
+	private static final long SESSION_TIMEOUT = 300;
+
+	/**
+	 * Maximum size of the handshake response.
+	 */
+	static final int MAX_HANDSHAKE_SIZE = 65536;
 
 	private Map<String, String> headers = Collections.emptyMap();
-	private final Queue<ByteBuf> streams = new ArrayDeque<ByteBuf>();
+	private boolean compress = false;
+	private PerMessageDeflate deflate;
+	private boolean multiplex = false;
+
+	/**
+	 * Our channel on a shared websocket, if {@link #multiplex} is set.
+	 */
+	private WebSocketMultiplexer.Channel shared;
+
+	/**
+	 * Received messages which have not been read yet. These are retained and must be released once drained.
+	 */
+	private final Queue<Message> messages = new ConcurrentLinkedQueue<Message>();
+
+	/**
+	 * The partially read message. This belongs to whoever removes it from the reference.
+	 */
+	private final AtomicReference<Message> current = new AtomicReference<Message>();
+
+	private volatile boolean closed = false;
+
+	/**
+	 * Whether we have sent part of a message, and so should send continuation frames.
+	 */
+	private boolean fragmented = false;
 
 	private ClientListener clientListener;
 	private ChannelFuture channelFuture;
@@ -56,41 +109,99 @@ public class WebSocketConnection extends AbstractConnection {
 		}
 	}
 
+	/**
+	 * Get the client context shared by all secure connections. As the context holds the session cache, sharing it
+	 * allows reconnects to use an abbreviated handshake.
+	 *
+	 * @return The shared context
+	 * @throws SSLException If the context could not be created.
+	 */
+	public static SslContext getSslContext() throws SSLException {
+		SslContext context = sslContext;
+		if (context != null) return context;
+
+		synchronized (lock) {
+			context = sslContext;
+			if (context != null) return context;
+
+			return sslContext = SslContext.newClientContext(
+				null, null, getTrustManager(), null, null, SESSION_CACHE_SIZE, SESSION_TIMEOUT
+			);
+		}
+	}
+
 	public void setHeaders(Map<String, String> headers) {
 		this.headers = headers;
 	}
 
+	/**
+	 * Offer the permessage-deflate extension when connecting.
+	 *
+	 * @param compress Whether to offer compression.
+	 */
+	public void setCompress(boolean compress) {
+		this.compress = compress;
+	}
+
+	/**
+	 * Share one websocket with every other connection to this URI with the same headers.
+	 *
+	 * @param multiplex Whether to share the websocket.
+	 * @see WebSocketMultiplexer
+	 */
+	public void setMultiplex(boolean multiplex) {
+		this.multiplex = multiplex;
+	}
+
 	@Override
 	protected InetSocketAddress connect(final URI uri, final int port) throws Exception {
 		InetSocketAddress address = super.connect(uri, port);
 
 		final SslContext ssl;
 		if (uri.getScheme().equalsIgnoreCase("wss")) {
-			ssl = SslContext.newClientContext(getTrustManager());
+			ssl = getSslContext();
 		} else {
 			ssl = null;
 		}
 
+		if (multiplex) {
+			shared = WebSocketMultiplexer.attach(uri, port, address, this.headers, ssl, this);
+			channelFuture = shared.channelFuture();
+			return address;
+		}
+
 		HttpHeaders headers = new DefaultHttpHeaders();
 		for (Map.Entry<String, String> header : this.headers.entrySet()) {
 			headers.add(header.getKey(), header.getValue());
 		}
 
-		clientListener = new ClientListener(WebSocketClientHandshakerFactory.newHandshaker(uri, WebSocketVersion.V13, null, false, headers));
+		if (compress) {
+			deflate = new PerMessageDeflate(Config.APIs.Socket.maxMessageSize);
+			if (!headers.contains(PerMessageDeflate.HEADER)) headers.add(PerMessageDeflate.HEADER, PerMessageDeflate.OFFER);
+		}
 
-		Bootstrap b = new Bootstrap();
-		b.group(SocketPoller.group())
-			.channel(NioSocketChannel.class)
+		WebSocketClientHandshaker handshaker;
+		if (deflate != null) {
+			handshaker = new PerMessageDeflate.Handshaker(uri, headers, Config.APIs.Socket.maxFrameSize, deflate);
+		} else {
+			handshaker = WebSocketClientHandshakerFactory.newHandshaker(
+				uri, WebSocketVersion.V13, null, false, headers, Config.APIs.Socket.maxFrameSize
+			);
+		}
+		clientListener = new ClientListener(handshaker);
+
+		channelFuture = SocketPoller.bootstrap()
 			.handler(new ChannelInitializer<SocketChannel>() {
 				@Override
 				protected void initChannel(SocketChannel ch) throws Exception {
 					ChannelPipeline p = ch.pipeline();
 					if (ssl != null) p.addLast(ssl.newHandler(ch.alloc(), uri.getHost(), port));
-					p.addLast(new HttpClientCodec(), new HttpObjectAggregator(8192), clientListener);
+					p.addLast(new HttpClientCodec(), new HttpObjectAggregator(MAX_HANDSHAKE_SIZE));
+					if (deflate != null) p.addLast(deflate);
+					p.addLast(new WebSocketFrameAggregator(Config.APIs.Socket.maxMessageSize), clientListener);
 				}
-			});
-
-		channelFuture = b.connect(address);
+			})
+			.connect(address);
 
 		return address;
 	}
@@ -106,7 +217,7 @@ public class WebSocketConnection extends AbstractConnection {
 
 		if (!channelFuture.channel().isOpen()) return false;
 
-		ChannelFuture handshakeFuture = clientListener.handshakeFuture();
+		ChannelFuture handshakeFuture = shared != null ? shared.handshakeFuture() : clientListener.handshakeFuture();
 		if (handshakeFuture == null || !handshakeFuture.isDone()) return false;
 		if (!handshakeFuture.isSuccess()) {
 			throw LuaHelpers.rewriteException(handshakeFuture.cause(), "Cannot open socket");
@@ -118,48 +229,200 @@ public class WebSocketConnection extends AbstractConnection {
 	@Override
 	public void close(boolean remove) {
 		super.close(remove);
-		if (clientListener != null) {
+		closed = true;
+		if (shared != null) {
+			shared.close();
+
+			shared = null;
+			channelFuture = null;
+		} else if (clientListener != null) {
 			channelFuture.channel().close();
 
 			clientListener = null;
 			channelFuture = null;
 		}
+
+		releaseFrames();
+	}
+
+	private void releaseFrames() {
+		Message message = current.getAndSet(null);
+		if (message != null) message.content.release();
+
+		while ((message = messages.poll()) != null) message.content.release();
+	}
+
+	/**
+	 * Add a received message to the queue, and notify the computer.
+	 *
+	 * @param content The message's contents. This will be released once read.
+	 * @param binary  Whether this is a binary message.
+	 */
+	void deliver(ByteBuf content, boolean binary) {
+		messages.add(new Message(content, binary));
+		if (closed) releaseFrames();
+
+		onMessage();
 	}
 
 	@Override
-	protected int write(byte[] contents) throws LuaException, InterruptedException {
-		if (checkConnected()) {
-			channelFuture.channel().writeAndFlush(new TextWebSocketFrame(Unpooled.wrappedBuffer(contents)));
-			return contents.length;
+	protected int write(ByteBuffer contents) throws LuaException, InterruptedException {
+		return send(contents, false, true);
+	}
+
+	/**
+	 * Send a message, splitting it into several frames if it is larger than {@link Config.APIs.Socket#maxFrameSize}.
+	 *
+	 * If compression was negotiated then whole messages are compressed. Messages sent in several parts are not.
+	 *
+	 * On a shared websocket the message is prefixed with our channel's header, and must be sent in one part.
+	 *
+	 * @param contents The contents of the message
+	 * @param binary   Whether this is a binary message. This is ignored when continuing a message.
+	 * @param last     Whether this is the end of the message. If not, the next call will continue this message.
+	 * @return The number of bytes sent.
+	 */
+	private int send(ByteBuffer contents, boolean binary, boolean last) throws LuaException, InterruptedException {
+		if (!checkConnected()) return 0;
+
+		Channel channel = channelFuture.channel();
+		int length = contents.remaining();
+
+		ByteBuf payload;
+		int rsv = 0;
+		Object writeLock = this;
+		if (shared != null) {
+			if (!last) throw new LuaException("Cannot send partial messages over a shared connection");
+
+			byte type = binary ? WebSocketMultiplexer.BINARY : WebSocketMultiplexer.TEXT;
+			payload = Unpooled.wrappedBuffer(WebSocketMultiplexer.header(type, shared.id()), Unpooled.wrappedBuffer(contents));
+			binary = true;
+			writeLock = shared.writeLock();
+		} else if (!fragmented && last && deflate != null && deflate.isEnabled()) {
+			payload = PerMessageDeflate.compress(contents);
+			rsv = PerMessageDeflate.RSV1;
 		} else {
-			return 0;
+			payload = Unpooled.wrappedBuffer(contents);
 		}
+
+		int maxFrame = Config.APIs.Socket.maxFrameSize;
+		try {
+			synchronized (writeLock) {
+				do {
+					ByteBuf content = payload.readSlice(Math.min(payload.readableBytes(), maxFrame)).retain();
+					boolean finalFrame = last && !payload.isReadable();
+
+					WebSocketFrame frame;
+					if (fragmented) {
+						frame = new ContinuationWebSocketFrame(finalFrame, 0, content);
+					} else if (binary) {
+						frame = new BinaryWebSocketFrame(finalFrame, rsv, content);
+					} else {
+						frame = new TextWebSocketFrame(finalFrame, rsv, content);
+					}
+					fragmented = !finalFrame;
+
+					channel.write(frame);
+				} while (payload.isReadable());
+			}
+		} finally {
+			payload.release();
+		}
+
+		scheduleFlush(channel);
+		return length;
+	}
+
+	/**
+	 * Take the next message, or the remainder of the partially read one.
+	 *
+	 * @return The message, or {@code null} if none is available. The caller is responsible for releasing it.
+	 */
+	private Message poll() {
+		Message message = current.getAndSet(null);
+		return message == null ? messages.poll() : message;
 	}
 
 	@Override
 	protected byte[] read(int count) throws LuaException, InterruptedException {
 		if (checkConnected()) {
-			ByteBuf stream;
-			synchronized (streams) {
-				stream = streams.peek();
-			}
-			if (stream == null) return null;
+			Message message = poll();
+			if (message == null) return null;
 
-			int toRead = Math.min(count, stream.capacity() - stream.readerIndex());
-			byte[] result = new byte[toRead];
-			stream.readBytes(result);
+			ByteBuf content = message.content;
+			byte[] result = new byte[Math.min(count, content.readableBytes())];
+			content.readBytes(result);
 
-			if (stream.readerIndex() >= stream.capacity()) {
-				synchronized (streams) {
-					streams.remove();
-				}
+			if (content.isReadable()) {
+				current.set(message);
+
+				// We may have been closed while reading, in which case nobody else will release this message.
+				if (closed) releaseFrames();
+			} else {
+				content.release();
 			}
+
 			return result;
 		} else {
 			return new byte[0];
 		}
 	}
 
+	/**
+	 * Read a whole message.
+	 *
+	 * @return The message's contents and whether it is binary, or {@code null} if none is available.
+	 */
+	private Object[] receive() throws LuaException, InterruptedException {
+		if (!checkConnected()) return null;
+
+		Message message = poll();
+		if (message == null) return null;
+
+		try {
+			byte[] result = new byte[message.content.readableBytes()];
+			message.content.readBytes(result);
+			return new Object[]{result, message.binary};
+		} finally {
+			message.content.release();
+		}
+	}
+
+	@Nonnull
+	@Override
+	public String[] getMethodNames() {
+		return ObjectArrays.concat(super.getMethodNames(), new String[]{"send", "receive"}, String.class);
+	}
+
+	@Override
+	public Object[] callMethod(@Nonnull ILuaContext context, int method, @Nonnull Object[] arguments) throws LuaException, InterruptedException {
+		switch (method) {
+			case 5: { // send
+				ByteBuffer contents = getBinary(arguments, 0);
+				boolean binary = optBoolean(arguments, 1, false);
+				boolean last = optBoolean(arguments, 2, true);
+				return new Object[]{send(contents, binary, last)};
+			}
+			case 6: { // receive
+				startRead();
+				Object[] result = receive();
+				finishRead();
+				return result;
+			}
+			default:
+				return super.callMethod(context, method, arguments);
+		}
+	}
+
+	@Override
+	public boolean isBinary(int method) {
+		return method == 5 || super.isBinary(method);
+	}
+
+	@Override
+	protected boolean hasUnread() {
+		return current.get() != null || !messages.isEmpty();
+	}
 
 	private class ClientListener extends SimpleChannelInboundHandler<Object> {
 		private final WebSocketClientHandshaker handshaker;
@@ -192,7 +455,11 @@ public class WebSocketConnection extends AbstractConnection {
 		public void channelRead0(ChannelHandlerContext ctx, Object msg) throws Exception {
 			Channel ch = ctx.channel();
 			if (!handshaker.isHandshakeComplete()) {
-				handshaker.finishHandshake(ch, (FullHttpResponse) msg);
+				FullHttpResponse response = (FullHttpResponse) msg;
+
+				// Negotiate first, so the frame decoder knows whether compressed frames are allowed.
+				if (deflate != null) deflate.negotiate(response.headers().get(PerMessageDeflate.HEADER));
+				handshaker.finishHandshake(ch, response);
 				handshakeFuture.setSuccess();
 
 				WebSocketConnection.this.onConnectFinished();
@@ -207,16 +474,9 @@ public class WebSocketConnection extends AbstractConnection {
 			}
 
 			WebSocketFrame frame = (WebSocketFrame) msg;
-			if (frame instanceof TextWebSocketFrame) {
-				synchronized (streams) {
-					WebSocketConnection.this.streams.add(frame.content().copy());
-				}
-				WebSocketConnection.this.onMessage();
-			} else if (frame instanceof BinaryWebSocketFrame) {
-				synchronized (streams) {
-					WebSocketConnection.this.streams.add(frame.content().copy());
-				}
-				WebSocketConnection.this.onMessage();
+			if (frame instanceof TextWebSocketFrame || frame instanceof BinaryWebSocketFrame) {
+				// The frame is released once this method returns, so retain the contents until they are read.
+				deliver(frame.content().retain(), frame instanceof BinaryWebSocketFrame);
 			} else if (frame instanceof CloseWebSocketFrame) {
 				ch.close();
 				WebSocketConnection.this.onClosed();
@@ -234,4 +494,17 @@ public class WebSocketConnection extends AbstractConnection {
 			WebSocketConnection.this.onError(message == null || message.isEmpty() ? "Unknown socket error" : message);
 		}
 	}
+
+	/**
+	 * A complete message received from the server.
+	 */
+	private static final class Message {
+		final ByteBuf content;
+		final boolean binary;
+
+		private Message(ByteBuf content, boolean binary) {
+			this.content = content;
+			this.binary = binary;
+		}
+	}
 }
@@ -0,0 +1,330 @@
+package org.squiddev.cctweaks.lua.lib.socket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http.*;
+import io.netty.handler.codec.http.websocketx.*;
+import io.netty.handler.ssl.SslContext;
+import org.squiddev.cctweaks.lua.Config;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shares one websocket between every connection to the same URI with the same headers.
+ *
+ * Each connection is given a logical channel on the shared websocket. Every message sent over the shared websocket is
+ * a binary message starting with a one byte type ({@link #OPEN}, {@link #TEXT}, {@link #BINARY} or {@link #CLOSE})
+ * and the four byte channel id, followed by the message's contents. The server is expected to use the same framing
+ * when replying.
+ */
+final class WebSocketMultiplexer {
+	public static final byte OPEN = 0;
+	public static final byte TEXT = 1;
+	public static final byte BINARY = 2;
+	public static final byte CLOSE = 3;
+
+	public static final int HEADER_SIZE = 5;
+
+	private static final Map<Key, Upstream> upstreams = new HashMap<Key, Upstream>();
+
+	private WebSocketMultiplexer() {
+		throw new IllegalStateException("Cannot instantiate singleton " + getClass().getName());
+	}
+
+	/**
+	 * Attach a connection to the shared websocket for this endpoint, opening one if needed.
+	 *
+	 * @param uri        The URI to connect to
+	 * @param port       The port to connect to
+	 * @param address    The resolved address to connect to
+	 * @param headers    The headers to send in the handshake
+	 * @param ssl        The SSL context to use, or {@code null} for an insecure connection
+	 * @param connection The connection to attach
+	 * @return The shared websocket and the connection's channel on it.
+	 */
+	public static Channel attach(URI uri, int port, InetSocketAddress address, Map<String, String> headers, SslContext ssl, WebSocketConnection connection) {
+		Key key = new Key(uri, headers);
+		while (true) {
+			Upstream upstream;
+			synchronized (upstreams) {
+				upstream = upstreams.get(key);
+				if (upstream == null) {
+					upstream = new Upstream(key, uri, port, address, ssl);
+					upstreams.put(key, upstream);
+				}
+			}
+
+			Channel channel = upstream.attach(connection);
+			if (channel != null) return channel;
+
+			// This websocket was closed after we found it: remove it and open a new one.
+			synchronized (upstreams) {
+				if (upstreams.get(key) == upstream) upstreams.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Build the header for a message on a logical channel.
+	 *
+	 * @param type The type of the message
+	 * @param id   The logical channel's id
+	 * @return The message header.
+	 */
+	public static ByteBuf header(byte type, int id) {
+		return Unpooled.buffer(HEADER_SIZE).writeByte(type).writeInt(id);
+	}
+
+	/**
+	 * A logical channel on a shared websocket.
+	 */
+	public static final class Channel {
+		private final Upstream upstream;
+		private final int id;
+
+		private Channel(Upstream upstream, int id) {
+			this.upstream = upstream;
+			this.id = id;
+		}
+
+		public int id() {
+			return id;
+		}
+
+		public ChannelFuture channelFuture() {
+			return upstream.channelFuture;
+		}
+
+		public ChannelFuture handshakeFuture() {
+			return upstream.listener.handshakeFuture;
+		}
+
+		/**
+		 * The lock which must be held while writing a message's frames, so they are not interleaved with another
+		 * connection's.
+		 *
+		 * @return The lock object.
+		 */
+		public Object writeLock() {
+			return upstream;
+		}
+
+		public void close() {
+			upstream.detach(id);
+		}
+	}
+
+	private static final class Upstream {
+		private final Key key;
+		private final ChannelFuture channelFuture;
+		private final Listener listener;
+
+		private final Map<Integer, WebSocketConnection> connections = new ConcurrentHashMap<Integer, WebSocketConnection>();
+		private int nextId = 0;
+		private boolean handshaken = false;
+		private boolean closed = false;
+
+		private Upstream(Key key, final URI uri, final int port, InetSocketAddress address, final SslContext ssl) {
+			this.key = key;
+
+			HttpHeaders headers = new DefaultHttpHeaders();
+			for (Map.Entry<String, String> header : key.headers.entrySet()) {
+				headers.add(header.getKey(), header.getValue());
+			}
+
+			listener = new Listener(WebSocketClientHandshakerFactory.newHandshaker(
+				uri, WebSocketVersion.V13, null, false, headers, Config.APIs.Socket.maxFrameSize
+			));
+
+			channelFuture = SocketPoller.bootstrap()
+				.handler(new ChannelInitializer<SocketChannel>() {
+					@Override
+					protected void initChannel(SocketChannel ch) throws Exception {
+						ChannelPipeline p = ch.pipeline();
+						if (ssl != null) p.addLast(ssl.newHandler(ch.alloc(), uri.getHost(), port));
+						p.addLast(new HttpClientCodec(), new HttpObjectAggregator(WebSocketConnection.MAX_HANDSHAKE_SIZE));
+						p.addLast(new WebSocketFrameAggregator(Config.APIs.Socket.maxMessageSize), listener);
+					}
+				})
+				.connect(address);
+		}
+
+		private Channel attach(WebSocketConnection connection) {
+			boolean open;
+			int id;
+			synchronized (this) {
+				if (closed) return null;
+
+				id = nextId++;
+				connections.put(id, connection);
+				open = handshaken;
+				if (open) send(OPEN, id);
+			}
+
+			if (open) connection.onConnectFinished();
+			return new Channel(this, id);
+		}
+
+		private void detach(int id) {
+			synchronized (this) {
+				// If the server closed this channel then we don't need to tell it.
+				if (connections.remove(id) == null) return;
+				if (handshaken && !closed) send(CLOSE, id);
+			}
+
+			closeIfUnused();
+		}
+
+		/**
+		 * Close the websocket once nothing is using it.
+		 */
+		private void closeIfUnused() {
+			synchronized (this) {
+				if (closed || !connections.isEmpty()) return;
+				closed = true;
+			}
+
+			synchronized (upstreams) {
+				if (upstreams.get(key) == this) upstreams.remove(key);
+			}
+			channelFuture.channel().close();
+		}
+
+		private void send(byte type, int id) {
+			channelFuture.channel().writeAndFlush(new BinaryWebSocketFrame(header(type, id)));
+		}
+
+		private void onHandshake() {
+			WebSocketConnection[] opened;
+			synchronized (this) {
+				handshaken = true;
+				for (Integer id : connections.keySet()) send(OPEN, id);
+				opened = connections.values().toArray(new WebSocketConnection[0]);
+			}
+
+			// Only mark the handshake as done once the channels are open, so nothing is sent on them before that.
+			listener.handshakeFuture.setSuccess();
+
+			for (WebSocketConnection connection : opened) connection.onConnectFinished();
+		}
+
+		private void onClosed() {
+			synchronized (this) {
+				closed = true;
+			}
+			synchronized (upstreams) {
+				if (upstreams.get(key) == this) upstreams.remove(key);
+			}
+
+			for (WebSocketConnection connection : connections.values()) connection.onClosed();
+			connections.clear();
+		}
+
+		private void onMessage(ByteBuf content) {
+			if (content.readableBytes() < HEADER_SIZE) return;
+
+			byte type = content.readByte();
+			int id = content.readInt();
+			switch (type) {
+				case TEXT:
+				case BINARY: {
+					WebSocketConnection connection = connections.get(id);
+					if (connection != null) connection.deliver(content.retain(), type == BINARY);
+					break;
+				}
+				case CLOSE: {
+					WebSocketConnection connection = connections.remove(id);
+					if (connection != null) {
+						connection.onClosed();
+						closeIfUnused();
+					}
+					break;
+				}
+				default:
+					break;
+			}
+		}
+
+		private void onError(String message) {
+			for (WebSocketConnection connection : connections.values()) connection.onError(message);
+		}
+
+		private class Listener extends SimpleChannelInboundHandler<Object> {
+			private final WebSocketClientHandshaker handshaker;
+			private ChannelPromise handshakeFuture;
+
+			private Listener(WebSocketClientHandshaker handshaker) {
+				this.handshaker = handshaker;
+			}
+
+			@Override
+			public void handlerAdded(ChannelHandlerContext ctx) {
+				handshakeFuture = ctx.newPromise();
+			}
+
+			@Override
+			public void channelActive(ChannelHandlerContext ctx) {
+				handshaker.handshake(ctx.channel());
+			}
+
+			@Override
+			public void channelInactive(ChannelHandlerContext ctx) {
+				Upstream.this.onClosed();
+			}
+
+			@Override
+			public void channelRead0(ChannelHandlerContext ctx, Object msg) throws Exception {
+				if (!handshaker.isHandshakeComplete()) {
+					handshaker.finishHandshake(ctx.channel(), (FullHttpResponse) msg);
+					Upstream.this.onHandshake();
+					return;
+				}
+
+				if (msg instanceof BinaryWebSocketFrame) {
+					Upstream.this.onMessage(((BinaryWebSocketFrame) msg).content());
+				} else if (msg instanceof CloseWebSocketFrame) {
+					ctx.close();
+				}
+			}
+
+			@Override
+			public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+				if (handshakeFuture != null && !handshakeFuture.isDone()) handshakeFuture.setFailure(cause);
+				ctx.close();
+
+				String message = cause.getMessage();
+				Upstream.this.onError(message == null || message.isEmpty() ? "Unknown socket error" : message);
+			}
+		}
+	}
+
+	private static final class Key {
+		private final String uri;
+		private final Map<String, String> headers;
+
+		private Key(URI uri, Map<String, String> headers) {
+			this.uri = uri.toString();
+			this.headers = new HashMap<String, String>(headers);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof Key)) return false;
+
+			Key key = (Key) o;
+			return uri.equals(key.uri) && headers.equals(key.headers);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * uri.hashCode() + headers.hashCode();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package org.squiddev.cctweaks.lua.lib;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChecksumsTest {
+	private static final byte[] CHECK = "123456789".getBytes(StandardCharsets.US_ASCII);
+
+	@Test
+	public void crc32KnownValue() {
+		assertEquals(0xCBF43926, Checksums.crc32(0, CHECK, 0, CHECK.length));
+	}
+
+	@Test
+	public void adler32KnownValue() {
+		byte[] wikipedia = "Wikipedia".getBytes(StandardCharsets.US_ASCII);
+		assertEquals(0x11E60398, Checksums.adler32(1, wikipedia, 0, wikipedia.length));
+		assertEquals(0x091E01DE, Checksums.adler32(1, CHECK, 0, CHECK.length));
+	}
+
+	@Test
+	public void emptyInput() {
+		assertEquals(0, Checksums.crc32(0, new byte[0], 0, 0));
+		assertEquals(1, Checksums.adler32(1, new byte[0], 0, 0));
+	}
+
+	@Test
+	public void matchesJdk() {
+		byte[] data = new byte[100000];
+		new Random(42).nextBytes(data);
+
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		assertEquals((int) crc.getValue(), Checksums.crc32(0, data, 0, data.length));
+
+		Adler32 adler = new Adler32();
+		adler.update(data, 0, data.length);
+		assertEquals((int) adler.getValue(), Checksums.adler32(1, data, 0, data.length));
+	}
+
+	@Test
+	public void continuesFromPreviousValue() {
+		byte[] data = new byte[20000];
+		new Random(7).nextBytes(data);
+
+		int split = 7777;
+		int crc = Checksums.crc32(Checksums.crc32(0, data, 0, split), data, split, data.length - split);
+		assertEquals(Checksums.crc32(0, data, 0, data.length), crc);
+
+		int adler = Checksums.adler32(Checksums.adler32(1, data, 0, split), data, split, data.length - split);
+		assertEquals(Checksums.adler32(1, data, 0, data.length), adler);
+	}
+
+	@Test
+	public void respectsOffset() {
+		byte[] padded = new byte[CHECK.length + 6];
+		System.arraycopy(CHECK, 0, padded, 3, CHECK.length);
+		assertEquals(0xCBF43926, Checksums.crc32(0, padded, 3, CHECK.length));
+	}
+}
@@ -0,0 +1,201 @@
+package org.squiddev.cctweaks.lua.lib;
+
+import dan200.computercraft.api.lua.ILuaObject;
+import dan200.computercraft.api.lua.LuaException;
+import org.junit.Before;
+import org.junit.Test;
+import org.squiddev.cctweaks.lua.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the data API's compression methods directly, without a computer.
+ */
+public class DataAPITest {
+	private static final int INFLATE = 0;
+	private static final int DEFLATE = 1;
+	private static final int INFLATE_STREAM = 2;
+	private static final int DEFLATE_STREAM = 3;
+
+	private DataAPI api;
+	private byte[] data;
+
+	@Before
+	public void setup() {
+		Config.APIs.Data.limit = 1 << 20;
+		Config.APIs.Data.offloadThreshold = 0;
+		Config.APIs.Data.maxStreams = 16;
+
+		api = new DataAPI();
+
+		// Compressible, but not trivially so.
+		data = new byte[100000];
+		Random random = new Random(5);
+		for (int i = 0; i < data.length; i++) data[i] = (byte) ('a' + random.nextInt(8));
+	}
+
+	private byte[] call(int method, Object... args) throws LuaException, InterruptedException {
+		return (byte[]) api.callMethod(null, method, args)[0];
+	}
+
+	private byte[] deflate(String format) throws LuaException, InterruptedException {
+		return call(DEFLATE, ByteBuffer.wrap(data), null, format);
+	}
+
+	private byte[] inflate(byte[] compressed, String format) throws LuaException, InterruptedException {
+		return call(INFLATE, ByteBuffer.wrap(compressed), format);
+	}
+
+	@Test
+	public void roundTrip() throws Exception {
+		for (String format : new String[]{"raw", "zlib", "gzip"}) {
+			assertArrayEquals(format, data, inflate(deflate(format), format));
+		}
+	}
+
+	@Test
+	public void gzipMatchesJdk() throws Exception {
+		GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(deflate("gzip")));
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = input.read(buffer)) > 0) output.write(buffer, 0, read);
+		assertArrayEquals(data, output.toByteArray());
+
+		assertArrayEquals(data, inflate(jdkGzip(data), "gzip"));
+	}
+
+	@Test
+	public void gzipHeaderWithOptionalFields() throws Exception {
+		byte[] body = jdkGzip(data);
+
+		// Set FEXTRA, FNAME and FCOMMENT, and insert the fields after the fixed header.
+		ByteArrayOutputStream framed = new ByteArrayOutputStream();
+		framed.write(body, 0, 10);
+		framed.write(new byte[]{3, 0, 'a', 'b', 'c'});
+		framed.write(new byte[]{'f', 'i', 'l', 'e', 0});
+		framed.write(new byte[]{'h', 'i', 0});
+		framed.write(body, 10, body.length - 10);
+
+		byte[] header = framed.toByteArray();
+		header[3] = 4 | 8 | 16;
+		assertArrayEquals(data, inflate(header, "gzip"));
+	}
+
+	@Test
+	public void truncatedInput() throws Exception {
+		for (String format : new String[]{"raw", "zlib", "gzip"}) {
+			byte[] compressed = deflate(format);
+
+			// Cut off in the middle of the compressed data, and (for gzip) just inside the trailer.
+			for (int length : new int[]{compressed.length / 2, compressed.length - 1}) {
+				try {
+					inflate(Arrays.copyOf(compressed, length), format);
+					fail("Expected an error for " + format + " truncated to " + length + " bytes");
+				} catch (LuaException e) {
+					assertEquals("Unexpected end of stream", e.getMessage());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void corruptGzipTrailer() throws Exception {
+		byte[] compressed = deflate("gzip");
+		compressed[compressed.length - 5] ^= 1;
+
+		try {
+			inflate(compressed, "gzip");
+			fail("Expected an error");
+		} catch (LuaException e) {
+			assertEquals("Corrupt gzip stream: bad CRC", e.getMessage());
+		}
+	}
+
+	@Test
+	public void notGzip() throws Exception {
+		try {
+			inflate(deflate("zlib"), "gzip");
+			fail("Expected an error");
+		} catch (LuaException e) {
+			assertEquals("Not in gzip format", e.getMessage());
+		}
+	}
+
+	@Test
+	public void streamInChunks() throws Exception {
+		byte[] compressed = deflate("gzip");
+		ILuaObject stream = (ILuaObject) api.callMethod(null, INFLATE_STREAM, new Object[]{"gzip"})[0];
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		for (int i = 0; i < compressed.length; i += 7) {
+			byte[] chunk = Arrays.copyOfRange(compressed, i, Math.min(compressed.length, i + 7));
+			output.write((byte[]) stream.callMethod(null, 0, new Object[]{ByteBuffer.wrap(chunk)})[0]);
+		}
+		output.write((byte[]) stream.callMethod(null, 1, new Object[0])[0]);
+
+		assertArrayEquals(data, output.toByteArray());
+	}
+
+	@Test
+	public void truncatedStream() throws Exception {
+		byte[] compressed = deflate("gzip");
+		ILuaObject stream = (ILuaObject) api.callMethod(null, INFLATE_STREAM, new Object[]{"gzip"})[0];
+		stream.callMethod(null, 0, new Object[]{ByteBuffer.wrap(compressed, 0, compressed.length - 4)});
+
+		try {
+			stream.callMethod(null, 1, new Object[0]);
+			fail("Expected an error");
+		} catch (LuaException e) {
+			assertEquals("Unexpected end of stream", e.getMessage());
+		}
+	}
+
+	@Test
+	public void shutdownClosesStreams() throws Exception {
+		ILuaObject stream = (ILuaObject) api.callMethod(null, INFLATE_STREAM, new Object[]{"zlib"})[0];
+		api.shutdown();
+
+		try {
+			stream.callMethod(null, 0, new Object[]{ByteBuffer.wrap(deflate("zlib"))});
+			fail("Expected an error");
+		} catch (LuaException e) {
+			assertEquals("Stream is closed", e.getMessage());
+		}
+	}
+
+	@Test
+	public void streamLimit() throws Exception {
+		Config.APIs.Data.maxStreams = 2;
+		ILuaObject first = (ILuaObject) api.callMethod(null, INFLATE_STREAM, new Object[0])[0];
+		api.callMethod(null, DEFLATE_STREAM, new Object[0]);
+
+		try {
+			api.callMethod(null, INFLATE_STREAM, new Object[0]);
+			fail("Expected an error");
+		} catch (LuaException e) {
+			assertEquals("Too many open streams", e.getMessage());
+		}
+
+		// Closing a stream frees its slot.
+		first.callMethod(null, 2, new Object[0]);
+		api.callMethod(null, INFLATE_STREAM, new Object[0]);
+	}
+
+	private static byte[] jdkGzip(byte[] data) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(output);
+		gzip.write(data);
+		gzip.close();
+		return output.toByteArray();
+	}
+}
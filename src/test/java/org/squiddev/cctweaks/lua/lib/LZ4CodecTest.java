@@ -0,0 +1,109 @@
+package org.squiddev.cctweaks.lua.lib;
+
+import dan200.computercraft.api.lua.LuaException;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LZ4CodecTest {
+	private static final int LIMIT = 1 << 24;
+
+	private static byte[] roundTrip(byte[] data) throws LuaException {
+		byte[] compressed = LZ4Codec.compress(data, 0, data.length);
+		assertTrue(compressed.length <= LZ4Codec.maxCompressedLength(data.length));
+		return LZ4Codec.decompress(compressed, 0, compressed.length, LIMIT);
+	}
+
+	@Test
+	public void empty() throws LuaException {
+		assertArrayEquals(new byte[0], roundTrip(new byte[0]));
+	}
+
+	@Test
+	public void shortInputs() throws LuaException {
+		for (int length = 1; length < 32; length++) {
+			byte[] data = new byte[length];
+			Arrays.fill(data, (byte) 'a');
+			assertArrayEquals("Length " + length, data, roundTrip(data));
+		}
+	}
+
+	@Test
+	public void random() throws LuaException {
+		byte[] data = new byte[100000];
+		new Random(1).nextBytes(data);
+		assertArrayEquals(data, roundTrip(data));
+	}
+
+	@Test
+	public void repetitive() throws LuaException {
+		byte[] data = new byte[200000];
+		for (int i = 0; i < data.length; i++) data[i] = (byte) "the quick brown fox ".charAt(i % 20);
+
+		byte[] compressed = LZ4Codec.compress(data, 0, data.length);
+		assertTrue("Should compress", compressed.length < data.length / 10);
+		assertArrayEquals(data, LZ4Codec.decompress(compressed, 0, compressed.length, LIMIT));
+	}
+
+	@Test
+	public void matchesBeyondMaxDistance() throws LuaException {
+		// Repeat a random block further apart than a match can reach.
+		byte[] block = new byte[1000];
+		new Random(2).nextBytes(block);
+		byte[] data = new byte[150000];
+		new Random(3).nextBytes(data);
+		System.arraycopy(block, 0, data, 0, block.length);
+		System.arraycopy(block, 0, data, 70000, block.length);
+		System.arraycopy(block, 0, data, 140000, block.length);
+
+		assertArrayEquals(data, roundTrip(data));
+	}
+
+	@Test
+	public void respectsOffset() throws LuaException {
+		byte[] data = "abcabcabcabcabcabcabcabcabcabc".getBytes(StandardCharsets.US_ASCII);
+		byte[] compressed = LZ4Codec.compress(data, 3, 20);
+
+		byte[] padded = new byte[compressed.length + 4];
+		System.arraycopy(compressed, 0, padded, 2, compressed.length);
+		assertArrayEquals(Arrays.copyOfRange(data, 3, 23), LZ4Codec.decompress(padded, 2, compressed.length, LIMIT));
+	}
+
+	@Test
+	public void decodesKnownBlock() throws LuaException {
+		// Uncompressed length 5, then a single literal-only sequence.
+		byte[] block = new byte[]{5, 0, 0, 0, 0x50, 'h', 'e', 'l', 'l', 'o'};
+		assertArrayEquals("hello".getBytes(StandardCharsets.US_ASCII), LZ4Codec.decompress(block, 0, block.length, LIMIT));
+	}
+
+	@Test
+	public void rejectsTooLong() {
+		byte[] data = new byte[1000];
+		byte[] compressed = LZ4Codec.compress(data, 0, data.length);
+		try {
+			LZ4Codec.decompress(compressed, 0, compressed.length, 999);
+			fail("Expected an error");
+		} catch (LuaException e) {
+			assertEquals("Decompressed data is too long", e.getMessage());
+		}
+	}
+
+	@Test
+	public void rejectsTruncated() {
+		byte[] data = new byte[10000];
+		new Random(4).nextBytes(data);
+		byte[] compressed = LZ4Codec.compress(data, 0, data.length);
+
+		for (int length : new int[]{0, 3, 4, 5, compressed.length / 2, compressed.length - 1}) {
+			try {
+				LZ4Codec.decompress(compressed, 0, length, LIMIT);
+				fail("Expected an error for length " + length);
+			} catch (LuaException ignored) {
+			}
+		}
+	}
+}
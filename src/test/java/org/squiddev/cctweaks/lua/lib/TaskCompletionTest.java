@@ -0,0 +1,91 @@
+package org.squiddev.cctweaks.lua.lib;
+
+import dan200.computercraft.api.lua.ILuaContext;
+import dan200.computercraft.api.lua.LuaException;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TaskCompletionTest {
+	@Test
+	public void succeed() throws LuaException {
+		TaskCompletion completion = new TaskCompletion(1, "task");
+		assertFalse(completion.isDone());
+
+		completion.succeed(new Object[]{"a", 2});
+		assertTrue(completion.isDone());
+		assertArrayEquals(new Object[]{"a", 2}, completion.getResult());
+	}
+
+	@Test
+	public void succeedWithNoResult() throws LuaException {
+		TaskCompletion completion = new TaskCompletion(1, "task");
+		completion.succeed(null);
+		assertArrayEquals(new Object[0], completion.getResult());
+	}
+
+	@Test
+	public void fail() {
+		TaskCompletion completion = new TaskCompletion(1, "task");
+		completion.fail("Oh no");
+		assertTrue(completion.isDone());
+
+		try {
+			completion.getResult();
+			org.junit.Assert.fail("Expected an error");
+		} catch (LuaException e) {
+			assertEquals("Oh no", e.getMessage());
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void resultBeforeDone() throws LuaException {
+		new TaskCompletion(1, "task").getResult();
+	}
+
+	@Test
+	public void awaitPullsUntilDone() throws Exception {
+		final TaskCompletion completion = new TaskCompletion(3, "task");
+		final AtomicInteger pulls = new AtomicInteger();
+
+		// A context which completes the task on the third event it is asked for.
+		ILuaContext context = (ILuaContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{ILuaContext.class}, (proxy, method, args) -> {
+			assertEquals("pullEvent", method.getName());
+			assertEquals("task", args[0]);
+			if (pulls.incrementAndGet() == 3) completion.succeed(new Object[]{true});
+			return new Object[]{"task", 3L};
+		});
+
+		assertArrayEquals(new Object[]{true}, completion.await(context));
+		assertEquals(3, pulls.get());
+	}
+
+	@Test
+	public void awaitCompletedElsewhere() throws Exception {
+		final TaskCompletion completion = new TaskCompletion(4, "task");
+		Thread worker = new Thread(() -> {
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException ignored) {
+			}
+			completion.fail("Failed on worker");
+		});
+
+		ILuaContext context = (ILuaContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{ILuaContext.class}, (proxy, method, args) -> {
+			Thread.sleep(5);
+			return new Object[]{"task"};
+		});
+
+		worker.start();
+		try {
+			completion.await(context);
+			org.junit.Assert.fail("Expected an error");
+		} catch (LuaException e) {
+			assertEquals("Failed on worker", e.getMessage());
+		}
+		worker.join();
+	}
+}
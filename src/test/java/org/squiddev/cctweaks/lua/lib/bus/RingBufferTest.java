@@ -0,0 +1,166 @@
+package org.squiddev.cctweaks.lua.lib.bus;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RingBufferTest {
+	@Test
+	public void emptyReturnsNull() {
+		RingBuffer<Integer> buffer = new RingBuffer<Integer>(4);
+		assertTrue(buffer.isEmpty());
+		assertNull(buffer.poll());
+	}
+
+	@Test
+	public void fifo() {
+		RingBuffer<Integer> buffer = new RingBuffer<Integer>(4);
+		assertTrue(buffer.offer(1));
+		assertTrue(buffer.offer(2));
+		assertFalse(buffer.isEmpty());
+
+		assertEquals(Integer.valueOf(1), buffer.poll());
+		assertEquals(Integer.valueOf(2), buffer.poll());
+		assertNull(buffer.poll());
+		assertTrue(buffer.isEmpty());
+	}
+
+	@Test
+	public void fullRejects() {
+		RingBuffer<Integer> buffer = new RingBuffer<Integer>(4);
+		for (int i = 0; i < 4; i++) assertTrue(buffer.offer(i));
+		assertFalse(buffer.offer(4));
+
+		// Removing one item frees exactly one slot.
+		assertEquals(Integer.valueOf(0), buffer.poll());
+		assertTrue(buffer.offer(4));
+		assertFalse(buffer.offer(5));
+
+		for (int i = 1; i <= 4; i++) assertEquals(Integer.valueOf(i), buffer.poll());
+		assertNull(buffer.poll());
+	}
+
+	@Test
+	public void capacityRoundsUp() {
+		RingBuffer<Integer> buffer = new RingBuffer<Integer>(5);
+		for (int i = 0; i < 8; i++) assertTrue(buffer.offer(i));
+		assertFalse(buffer.offer(8));
+	}
+
+	@Test
+	public void capacityOfOne() {
+		// A single slot can't be told apart from an empty one, so this holds two items.
+		RingBuffer<Integer> buffer = new RingBuffer<Integer>(1);
+		assertTrue(buffer.offer(1));
+		assertTrue(buffer.offer(2));
+		assertFalse(buffer.offer(3));
+
+		assertEquals(Integer.valueOf(1), buffer.poll());
+		assertTrue(buffer.offer(4));
+		assertEquals(Integer.valueOf(2), buffer.poll());
+		assertEquals(Integer.valueOf(4), buffer.poll());
+		assertNull(buffer.poll());
+	}
+
+	@Test
+	public void wrapsAround() {
+		RingBuffer<Integer> buffer = new RingBuffer<Integer>(4);
+
+		// Go round the buffer many times, with a varying number of items in it.
+		int written = 0, read = 0;
+		for (int lap = 0; lap < 1000; lap++) {
+			int count = lap % 4 + 1;
+			for (int i = 0; i < count; i++) assertTrue(buffer.offer(written++));
+			for (int i = 0; i < count; i++) assertEquals(Integer.valueOf(read++), buffer.poll());
+			assertNull(buffer.poll());
+			assertTrue(buffer.isEmpty());
+		}
+	}
+
+	@Test
+	public void multipleProducersAndConsumers() throws InterruptedException {
+		final int producers = 4, consumers = 2, perProducer = 100000;
+		final RingBuffer<Long> buffer = new RingBuffer<Long>(8);
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicInteger remaining = new AtomicInteger(producers * perProducer);
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		final boolean[][] seen = new boolean[producers][perProducer];
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int p = 0; p < producers; p++) {
+			final int producer = p;
+			threads.add(new Thread(() -> {
+				await(start);
+				for (int i = 0; i < perProducer; i++) {
+					Long item = ((long) producer << 32) | i;
+					while (!buffer.offer(item)) Thread.yield();
+				}
+			}));
+		}
+
+		for (int c = 0; c < consumers; c++) {
+			threads.add(new Thread(() -> {
+				await(start);
+
+				// Items from one producer must be received in the order they were sent.
+				int[] last = new int[producers];
+				for (int i = 0; i < producers; i++) last[i] = -1;
+
+				while (remaining.get() > 0) {
+					Long item = buffer.poll();
+					if (item == null) {
+						Thread.yield();
+						continue;
+					}
+
+					int producer = (int) (item >>> 32), index = (int) (long) item;
+					try {
+						assertTrue("Out of order", index > last[producer]);
+						last[producer] = index;
+
+						synchronized (seen) {
+							assertFalse("Duplicate item", seen[producer][index]);
+							seen[producer][index] = true;
+						}
+					} catch (Throwable e) {
+						synchronized (errors) {
+							errors.add(e);
+						}
+						remaining.set(0);
+						return;
+					}
+
+					remaining.decrementAndGet();
+				}
+			}));
+		}
+
+		for (Thread thread : threads) thread.start();
+		start.countDown();
+		for (Thread thread : threads) thread.join(TimeUnit.SECONDS.toMillis(60));
+
+		if (!errors.isEmpty()) throw new AssertionError(errors.get(0));
+		for (Thread thread : threads) assertFalse("Thread did not finish", thread.isAlive());
+
+		for (int p = 0; p < producers; p++) {
+			for (int i = 0; i < perProducer; i++) assertTrue("Lost item", seen[p][i]);
+		}
+		assertTrue(buffer.isEmpty());
+		assertNull(buffer.poll());
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}